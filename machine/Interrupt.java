@@ -4,9 +4,8 @@ package nachos.machine;
 
 import nachos.security.*;
 
+import java.util.Random;
 import java.util.TreeSet;
-import java.util.Iterator;
-import java.util.SortedSet;
 
 /**
  * The <tt>Interrupt</tt> class emulates low-level interrupt hardware. The
@@ -52,7 +51,7 @@ public final class Interrupt {
 		privilege.interrupt = new InterruptPrivilege();
 
 		enabled = false;
-		pending = new TreeSet<PendingInterrupt>();
+		pending = new PendingQueue();
 	}
 
 	/**
@@ -119,16 +118,39 @@ public final class Interrupt {
 		return !enabled;
 	}
 
+	/**
+	 * Advance the simulated time to the earliest pending interrupt, and invoke
+	 * the interrupt handlers that are then due. The kernel's idle thread calls
+	 * this when no thread is ready to run, since nothing else can happen
+	 * before then. The ticks skipped are counted in <tt>Stats.idleTicks</tt>.
+	 * Interrupts must be disabled.
+	 */
+	public void idle() {
+		Lib.assertTrue(disabled());
+
+		if (pending.isEmpty())
+			return;
+
+		long ticks = ticksUntilDue();
+		if (ticks > 0) {
+			Lib.debug(dbgInt, "Idling for " + ticks + " ticks");
+
+			privilege.stats.idleTicks += ticks;
+			privilege.stats.totalTicks += ticks;
+		}
+
+		checkIfDue();
+	}
+
 	private void schedule(long when, String type, Runnable handler) {
 		Lib.assertTrue(when > 0);
 
 		long time = privilege.stats.totalTicks + when;
-		PendingInterrupt toOccur = new PendingInterrupt(time, type, handler);
 
 		Lib.debug(dbgInt, "Scheduling the " + type
 				+ " interrupt handler at time = " + time);
 
-		pending.add(toOccur);
+		pending.add(time, type, handler);
 	}
 
 	private void tick(boolean inKernelMode) {
@@ -151,6 +173,38 @@ public final class Interrupt {
 		enabled = true;
 	}
 
+	private void tick(boolean inKernelMode, int count) {
+		Stats stats = privilege.stats;
+
+		// only the last tick may reach an interrupt
+		Lib.assertTrue(count > 0);
+		long tick = inKernelMode ? Stats.KernelTick : Stats.UserTick;
+		Lib.assertTrue(ticksUntilDue() > (count - 1) * tick);
+
+		if (Lib.test(dbgInt)) {
+			for (int i = 0; i < count; i++)
+				tick(inKernelMode);
+			return;
+		}
+
+		if (inKernelMode)
+			stats.kernelTicks += count * tick;
+		else
+			stats.userTicks += count * tick;
+		stats.totalTicks += count * tick;
+
+		enabled = false;
+		checkIfDue();
+		enabled = true;
+	}
+
+	private long ticksUntilDue() {
+		if (pending.isEmpty())
+			return Long.MAX_VALUE;
+
+		return pending.firstTime() - privilege.stats.totalTicks;
+	}
+
 	private void checkIfDue() {
 		long time = privilege.stats.totalTicks;
 
@@ -162,24 +216,21 @@ public final class Interrupt {
 		if (pending.isEmpty())
 			return;
 
-		if (((PendingInterrupt) pending.first()).time > time)
+		if (pending.firstTime() > time)
 			return;
 
 		Lib.debug(dbgInt, "Invoking interrupt handlers at time = " + time);
 
-		while (!pending.isEmpty()
-				&& ((PendingInterrupt) pending.first()).time <= time) {
-			PendingInterrupt next = (PendingInterrupt) pending.first();
-			pending.remove(next);
-
-			Lib.assertTrue(next.time <= time);
+		while (!pending.isEmpty() && pending.firstTime() <= time) {
+			String type = pending.firstType();
+			Runnable handler = pending.removeFirst();
 
 			if (privilege.processor != null)
 				privilege.processor.flushPipe();
 
-			Lib.debug(dbgInt, "  " + next.type);
+			Lib.debug(dbgInt, "  " + type);
 
-			next.handler.run();
+			handler.run();
 		}
 
 		Lib.debug(dbgInt, "  (end of list)");
@@ -190,27 +241,115 @@ public final class Interrupt {
 				+ ", interrupts " + (enabled ? "on" : "off"));
 		System.out.println("Pending interrupts:");
 
-		for (Iterator i = pending.iterator(); i.hasNext();) {
-			PendingInterrupt toOccur = (PendingInterrupt) i.next();
-			System.out.println("  " + toOccur.type + ", scheduled at "
-					+ toOccur.time);
+		// print in order from a copy, leaving the queue alone
+		for (PendingQueue copy = new PendingQueue(pending); !copy.isEmpty();) {
+			System.out.println("  " + copy.firstType() + ", scheduled at "
+					+ copy.firstTime());
+			copy.removeFirst();
 		}
 
 		System.out.println("  (end of list)");
 	}
 
-	private class PendingInterrupt implements Comparable {
-		PendingInterrupt(long time, String type, Runnable handler) {
-			this.time = time;
-			this.type = type;
-			this.handler = handler;
-			this.id = numPendingInterruptsCreated++;
+	/**
+	 * Test whether the pending interrupt queue is working, and compare its
+	 * speed with a <tt>TreeSet</tt> of pending interrupt objects, which is what
+	 * this class used to keep. The queue is timed at 10, 1,000 and 100,000
+	 * pending interrupts, in the steady state where each interrupt that
+	 * occurs schedules another.
+	 */
+	public static void selfTest() {
+		Random random = new Random(0);
+
+		// check the order against a sorted set
+		PendingQueue queue = new PendingQueue();
+		TreeSet<PendingEvent> set = new TreeSet<PendingEvent>();
+		long id = 0;
+
+		for (int i = 0; i < 100000; i++) {
+			if (set.isEmpty() || random.nextInt(3) != 0) {
+				long time = random.nextInt(1000);
+				queue.add(time, null, null);
+				set.add(new PendingEvent(time, id++));
+			}
+			else {
+				PendingEvent first = set.first();
+				set.remove(first);
+
+				Lib.assertTrue(queue.firstTime() == first.time);
+				queue.removeFirst();
+			}
+		}
+
+		Lib.assertTrue(queue.size() == set.size());
+
+		int[] sizes = { 10, 1000, 100000 };
+
+		for (int i = 0; i < sizes.length; i++) {
+			long heapTime = benchmarkQueue(sizes[i]);
+			long setTime = benchmarkSet(sizes[i]);
+
+			System.out.println("Interrupt queue, " + sizes[i]
+					+ " pending: heap " + heapTime + " ns/op, TreeSet "
+					+ setTime + " ns/op");
+		}
+	}
+
+	private static final int benchmarkOperations = 2000000;
+
+	private static long benchmarkQueue(int size) {
+		Random random = new Random(size);
+		PendingQueue queue = new PendingQueue();
+		Runnable handler = new Runnable() {
+			public void run() {
+			}
+		};
+
+		for (int i = 0; i < size; i++)
+			queue.add(random.nextInt(1000), "benchmark", handler);
+
+		long startTime = System.nanoTime();
+
+		for (int i = 0; i < benchmarkOperations; i++) {
+			long time = queue.firstTime();
+			queue.removeFirst();
+			queue.add(time + 1 + random.nextInt(1000), "benchmark", handler);
+		}
+
+		return (System.nanoTime() - startTime) / benchmarkOperations;
+	}
+
+	private static long benchmarkSet(int size) {
+		Random random = new Random(size);
+		TreeSet<PendingEvent> set = new TreeSet<PendingEvent>();
+		long id = 0;
+
+		for (int i = 0; i < size; i++)
+			set.add(new PendingEvent(random.nextInt(1000), id++));
+
+		long startTime = System.nanoTime();
+
+		for (int i = 0; i < benchmarkOperations; i++) {
+			PendingEvent first = set.first();
+			set.remove(first);
+			set.add(new PendingEvent(first.time + 1 + random.nextInt(1000),
+					id++));
 		}
 
-		public int compareTo(Object o) {
-			PendingInterrupt toOccur = (PendingInterrupt) o;
+		return (System.nanoTime() - startTime) / benchmarkOperations;
+	}
+
+	/**
+	 * A pending interrupt as this class used to keep them, for
+	 * <tt>selfTest()</tt>.
+	 */
+	private static class PendingEvent implements Comparable<PendingEvent> {
+		PendingEvent(long time, long id) {
+			this.time = time;
+			this.id = id;
+		}
 
-			// can't return 0 for unequal objects, so check all fields
+		public int compareTo(PendingEvent toOccur) {
 			if (time < toOccur.time)
 				return -1;
 			else if (time > toOccur.time)
@@ -223,22 +362,177 @@ public final class Interrupt {
 				return 0;
 		}
 
-		long time;
+		long time, id;
+	}
+
+	/**
+	 * The pending interrupts, kept in an array-backed 4-ary min-heap ordered by
+	 * time, and by order of scheduling among interrupts due at the same time.
+	 * Each entry is stored across parallel arrays, so scheduling an interrupt
+	 * allocates nothing once the arrays have grown large enough.
+	 */
+	private static class PendingQueue {
+		PendingQueue() {
+			times = new long[initialCapacity];
+			ids = new long[initialCapacity];
+			types = new String[initialCapacity];
+			handlers = new Runnable[initialCapacity];
+		}
+
+		PendingQueue(PendingQueue queue) {
+			times = queue.times.clone();
+			ids = queue.ids.clone();
+			types = queue.types.clone();
+			handlers = queue.handlers.clone();
+			size = queue.size;
+			nextId = queue.nextId;
+		}
 
-		String type;
+		boolean isEmpty() {
+			return size == 0;
+		}
 
-		Runnable handler;
+		int size() {
+			return size;
+		}
 
-		private long id;
-	}
+		void add(long time, String type, Runnable handler) {
+			if (size == times.length)
+				grow();
+
+			int i = size++;
+			long id = nextId++;
+
+			// sift up
+			while (i > 0) {
+				int parent = (i - 1) >> 2;
+				if (!before(time, id, parent))
+					break;
+
+				move(parent, i);
+				i = parent;
+			}
+
+			set(i, time, id, type, handler);
+		}
+
+		long firstTime() {
+			Lib.assertTrue(size > 0);
+			return times[0];
+		}
+
+		String firstType() {
+			Lib.assertTrue(size > 0);
+			return types[0];
+		}
+
+		/**
+		 * Remove the earliest pending interrupt and return its handler.
+		 */
+		Runnable removeFirst() {
+			Lib.assertTrue(size > 0);
+
+			Runnable handler = handlers[0];
+
+			int last = --size;
+			long time = times[last];
+			long id = ids[last];
+			String type = types[last];
+			Runnable lastHandler = handlers[last];
+
+			types[last] = null;
+			handlers[last] = null;
+
+			if (last > 0) {
+				// sift down
+				int i = 0;
+
+				while (true) {
+					int child = (i << 2) + 1;
+					if (child >= last)
+						break;
+
+					int end = Math.min(child + 4, last);
+					int min = child;
+					for (int c = child + 1; c < end; c++) {
+						if (before(times[c], ids[c], min))
+							min = c;
+					}
 
-	private long numPendingInterruptsCreated = 0;
+					if (!before(times[min], ids[min], time, id))
+						break;
+
+					move(min, i);
+					i = min;
+				}
+
+				set(i, time, id, type, lastHandler);
+			}
+
+			return handler;
+		}
+
+		private boolean before(long time, long id, int i) {
+			return before(time, id, times[i], ids[i]);
+		}
+
+		private static boolean before(long time1, long id1, long time2,
+				long id2) {
+			return time1 < time2 || (time1 == time2 && id1 < id2);
+		}
+
+		private void move(int from, int to) {
+			times[to] = times[from];
+			ids[to] = ids[from];
+			types[to] = types[from];
+			handlers[to] = handlers[from];
+		}
+
+		private void set(int i, long time, long id, String type,
+				Runnable handler) {
+			times[i] = time;
+			ids[i] = id;
+			types[i] = type;
+			handlers[i] = handler;
+		}
+
+		private void grow() {
+			int capacity = times.length * 2;
+
+			long[] newTimes = new long[capacity];
+			long[] newIds = new long[capacity];
+			String[] newTypes = new String[capacity];
+			Runnable[] newHandlers = new Runnable[capacity];
+
+			System.arraycopy(times, 0, newTimes, 0, size);
+			System.arraycopy(ids, 0, newIds, 0, size);
+			System.arraycopy(types, 0, newTypes, 0, size);
+			System.arraycopy(handlers, 0, newHandlers, 0, size);
+
+			times = newTimes;
+			ids = newIds;
+			types = newTypes;
+			handlers = newHandlers;
+		}
+
+		private long[] times, ids;
+
+		private String[] types;
+
+		private Runnable[] handlers;
+
+		private int size = 0;
+
+		private long nextId = 0;
+
+		private static final int initialCapacity = 16;
+	}
 
 	private Privilege privilege;
 
 	private boolean enabled;
 
-	private TreeSet<PendingInterrupt> pending;
+	private PendingQueue pending;
 
 	private static final char dbgInt = 'i';
 
@@ -250,5 +544,13 @@ public final class Interrupt {
 		public void tick(boolean inKernelMode) {
 			Interrupt.this.tick(inKernelMode);
 		}
+
+		public void tick(boolean inKernelMode, int count) {
+			Interrupt.this.tick(inKernelMode, count);
+		}
+
+		public long ticksUntilDue() {
+			return Interrupt.this.ticksUntilDue();
+		}
 	}
 }
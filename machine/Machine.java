@@ -98,6 +98,7 @@ public final class Machine {
 	public static void halt() {
 		System.out.print("Machine halting!\n\n");
 		stats.print();
+		TCB.printSwitchHistogram();
 		terminate();
 	}
 
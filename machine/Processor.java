@@ -44,6 +44,27 @@ public final class Processor {
 			registers[i] = 0;
 
 		mainMemory = new byte[pageSize * numPhysPages];
+		decodeCache = new Decoded[numPhysPages][];
+		blockCache = new Block[numPhysPages][];
+
+		String engineName = Config.getString("Processor.engine", "interpreter");
+		if (engineName.equals("interpreter"))
+			useBlocks = false;
+		else if (engineName.equals("block"))
+			useBlocks = true;
+		else if (engineName.equals("translate")) {
+			useBlocks = true;
+			translator = new Translator(privilege);
+			translateThreshold = Config.getInteger(
+					"Processor.translateThreshold", 100);
+			Lib.assertTrue(translateThreshold > 0);
+		}
+		else
+			Lib.assertNotReached("unknown Processor.engine: " + engineName);
+
+		// the interrupt trace shows every tick
+		batchTicks = Config.getBoolean("Processor.batchTicks", false)
+				&& !Lib.test(dbgInterrupt);
 
 		if (usingTLB) {
 			translations = new TranslationEntry[tlbSize];
@@ -81,6 +102,15 @@ public final class Processor {
 
 	/**
 	 * Start executing instructions at the current PC. Never returns.
+	 * 
+	 * <p>
+	 * If the <tt>nachos.conf</tt> key <tt>Processor.engine</tt> is
+	 * <tt>block</tt>, instructions are executed a basic block at a time (see
+	 * <tt>runBlocks()</tt>). If it is <tt>translate</tt>, blocks that have run
+	 * <tt>Processor.translateThreshold</tt> times are also translated to JVM
+	 * classes (see <tt>Translator</tt>). Otherwise, or when tracing with the
+	 * <tt>p</tt>, <tt>m</tt> or <tt>M</tt> debug flags, instructions are
+	 * interpreted one at a time.
 	 */
 	public void run() {
 		Lib.debug(dbgProcessor, "starting program in current thread");
@@ -91,6 +121,10 @@ public final class Processor {
 
 		Instruction inst = new Instruction();
 
+		if (useBlocks && !Lib.test(dbgProcessor) && !Lib.test(dbgDisassemble)
+				&& !Lib.test(dbgFullDisassemble))
+			runBlocks(inst);
+
 		while (true) {
 			try {
 				inst.run();
@@ -99,7 +133,7 @@ public final class Processor {
 				e.handle();
 			}
 
-			privilege.interrupt.tick(false);
+			retire(1);
 		}
 	}
 
@@ -173,6 +207,7 @@ public final class Processor {
 		Lib.assertTrue(!usingTLB);
 
 		this.translations = pageTable;
+		forgetFetch();
 	}
 
 	/**
@@ -214,6 +249,7 @@ public final class Processor {
 		Lib.assertTrue(number >= 0 && number < tlbSize);
 
 		translations[number] = new TranslationEntry(entry);
+		forgetFetch();
 	}
 
 	/**
@@ -236,6 +272,25 @@ public final class Processor {
 		return mainMemory;
 	}
 
+	/**
+	 * Discard any decoded instructions cached for the specified physical page.
+	 * Called by <tt>CoffSection.loadPage()</tt>; a kernel should also call this
+	 * when it evicts a page or gives it to another process.
+	 * 
+	 * <p>
+	 * Cached instructions are checked against memory before they are used, so
+	 * this is not needed for correctness, but it lets the cache drop pages
+	 * that no longer hold code.
+	 * 
+	 * @param ppn the physical page whose decoded instructions to discard.
+	 */
+	public void invalidatePage(int ppn) {
+		Lib.assertTrue(ppn >= 0 && ppn < numPhysPages);
+
+		decodeCache[ppn] = null;
+		blockCache[ppn] = null;
+	}
+
 	/**
 	 * Concatenate a page number and an offset into an address.
 	 * 
@@ -276,6 +331,510 @@ public final class Processor {
 		delayedLoad(0, 0, 0);
 	}
 
+	/**
+	 * Forget the page remembered by <tt>translateFetch()</tt>, and make the
+	 * block engine recheck cached blocks against memory. Called whenever the
+	 * kernel gets a chance to run or the address translation state changes.
+	 */
+	private void forgetFetch() {
+		fetchCached = false;
+		fetchEpoch++;
+	}
+
+	/**
+	 * Translate the address of the next instruction to fetch. The page used by
+	 * the last fetch is remembered until the kernel next gets a chance to
+	 * change the address translation state, so straight-line code only goes
+	 * through <tt>translate()</tt> once per page.
+	 * 
+	 * @param vaddr the virtual address of the instruction.
+	 * @return the physical address of the instruction.
+	 * @exception MipsException if a translation error occurred.
+	 */
+	private int translateFetch(int vaddr) throws MipsException {
+		int base = vaddr & ~(pageSize - 1);
+
+		if (fetchCached && base == fetchVBase && (vaddr & 0x3) == 0)
+			return fetchPBase | (vaddr & (pageSize - 1));
+
+		int paddr = translate(vaddr, 4, false);
+
+		fetchVBase = base;
+		fetchPBase = paddr & ~(pageSize - 1);
+		fetchCached = true;
+
+		return paddr;
+	}
+
+	/**
+	 * Return the decoded form of the instruction at the specified physical
+	 * address. A cached entry is only used if memory still holds the word it
+	 * was decoded from, which catches code the kernel copies directly into
+	 * <tt>getMemory()</tt>.
+	 * 
+	 * @param paddr the physical address of the instruction.
+	 * @return the decoded instruction.
+	 */
+	private Decoded decodeAt(int paddr) {
+		Stats stats = privilege.stats;
+		int value = Lib.bytesToInt(mainMemory, paddr);
+
+		Decoded[] page = decodeCache[paddr / pageSize];
+		if (page == null)
+			page = decodeCache[paddr / pageSize] = new Decoded[pageSize / 4];
+
+		int index = (paddr % pageSize) / 4;
+		Decoded decoded = page[index];
+
+		if (decoded != null && decoded.value == value) {
+			stats.numDecodeCacheHits++;
+			return decoded;
+		}
+
+		stats.numDecodeCacheMisses++;
+		decoded = new Decoded(value);
+		page[index] = decoded;
+
+		return decoded;
+	}
+
+	/**
+	 * Drop the cached decoded instruction containing the specified physical
+	 * address, because it is about to be overwritten.
+	 * 
+	 * @param paddr the physical address being written.
+	 */
+	private void invalidateDecoded(int paddr) {
+		int ppn = paddr / pageSize;
+
+		Decoded[] page = decodeCache[ppn];
+		if (page != null)
+			page[(paddr % pageSize) / 4] = null;
+
+		// blocks may span the word, so drop the whole page and stop the
+		// block currently running in case it is one of them
+		if (blockCache[ppn] != null) {
+			blockCache[ppn] = null;
+			forgetFetch();
+		}
+	}
+
+	/**
+	 * Execute instructions a basic block at a time. Each block is decoded once
+	 * into an array of <tt>Decoded</tt> entries, and the common operations are
+	 * executed directly by <tt>step()</tt> rather than through
+	 * <tt>Instruction</tt>. Never returns.
+	 * 
+	 * <p>
+	 * Simulated time still advances after every instruction, and the block is
+	 * abandoned as soon as the kernel runs or control leaves it, so interrupts,
+	 * exceptions, delay slots and delayed loads behave exactly as they do in
+	 * the interpreter.
+	 * 
+	 * @param inst used to execute operations <tt>step()</tt> does not handle
+	 * itself.
+	 */
+	private void runBlocks(Instruction inst) {
+		while (true) {
+			int pc = registers[regPC];
+			Block block;
+
+			try {
+				block = blockAt(translateFetch(pc));
+			}
+			catch (MipsException e) {
+				e.handle();
+				retire(1);
+				continue;
+			}
+
+			if (translator != null && runTranslated(block, pc))
+				continue;
+
+			Decoded[] insts = block.insts;
+
+			for (int i = 0; i < insts.length; i++) {
+				try {
+					step(insts[i], inst);
+				}
+				catch (MipsException e) {
+					e.handle();
+				}
+
+				retire(1);
+
+				pc += 4;
+				if (!fetchCached || registers[regPC] != pc)
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Run the translated code for a block, translating the block first if it
+	 * has just become hot. Translated code advances simulated time only after
+	 * it returns, so it is only run if no interrupt can become due before its
+	 * last instruction, and only when entered straight-line with no delayed
+	 * load pending.
+	 * 
+	 * @param block the block starting at the current PC.
+	 * @param pc the virtual address of the block.
+	 * @return <tt>true</tt> if translated code was run, <tt>false</tt> if the
+	 * block must be executed by <tt>step()</tt>.
+	 */
+	private boolean runTranslated(Block block, int pc) {
+		if (block.code == null) {
+			if (++block.count != translateThreshold)
+				return false;
+
+			block.codeLength = Translator.translatable(block.insts);
+			if (block.codeLength == 0)
+				return false;
+
+			block.code = translator.translate(block.insts, block.codeLength,
+					pc);
+			block.codeVAddr = pc;
+		}
+
+		if (block.codeVAddr != pc || loadTarget != 0
+				|| registers[regNextPC] != pc + 4
+				|| !canRetire(block.codeLength))
+			return false;
+
+		retire(block.code.run(registers, mainMemory, translationHost));
+
+		// the code stopped before an instruction that caused an exception
+		if (translationFault != null) {
+			MipsException e = translationFault;
+			translationFault = null;
+
+			e.handle();
+			retire(1);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Advance simulated time for user instructions that have just completed.
+	 * 
+	 * <p>
+	 * If the <tt>nachos.conf</tt> key <tt>Processor.batchTicks</tt> is
+	 * <tt>true</tt>, the ticks are only counted here, and are credited to
+	 * <tt>Interrupt</tt> in one step when the earliest pending interrupt
+	 * becomes due, or when an exception passes control to the kernel. Nothing
+	 * can observe the time in between, so interrupts still occur after the
+	 * same instructions as they do with a tick per instruction.
+	 * 
+	 * @param count the number of instructions completed.
+	 */
+	private void retire(int count) {
+		if (!batchTicks) {
+			for (int i = 0; i < count; i++)
+				privilege.interrupt.tick(false);
+			return;
+		}
+
+		if (tickBudget == 0)
+			tickBudget = instructionsUntilDue();
+
+		pendingTicks += count;
+		if (pendingTicks >= tickBudget)
+			flushTicks();
+	}
+
+	/**
+	 * Test whether the specified number of instructions can complete without
+	 * an interrupt becoming due before the last of them.
+	 * 
+	 * @param count the number of instructions.
+	 * @return <tt>true</tt> if only the last of them may end at an interrupt.
+	 */
+	private boolean canRetire(int count) {
+		if (!batchTicks)
+			return instructionsUntilDue() > count - 1;
+
+		if (tickBudget == 0)
+			tickBudget = instructionsUntilDue();
+
+		return pendingTicks + count - 1 < tickBudget;
+	}
+
+	/**
+	 * Credit the ticks counted by <tt>retire()</tt> to <tt>Interrupt</tt>,
+	 * which runs any interrupt handlers that are now due. The budget is
+	 * dropped even if no ticks are pending, since the kernel may advance the
+	 * time or schedule an earlier interrupt before user code runs again.
+	 */
+	private void flushTicks() {
+		tickBudget = 0;
+
+		if (pendingTicks > 0) {
+			int count = pendingTicks;
+			pendingTicks = 0;
+
+			privilege.interrupt.tick(false, count);
+		}
+	}
+
+	/**
+	 * Return the number of user instructions after which the earliest pending
+	 * interrupt will be due.
+	 */
+	private int instructionsUntilDue() {
+		long ticks = privilege.interrupt.ticksUntilDue();
+		long count = (ticks + Stats.UserTick - 1) / Stats.UserTick;
+
+		return (int) Math.max(1, Math.min(count, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Return the block starting at the specified physical address, building
+	 * it if necessary. A cached block is checked against memory the first time
+	 * it is used after the kernel has run.
+	 * 
+	 * @param paddr the physical address of the first instruction.
+	 * @return the block starting at <i>paddr</i>.
+	 */
+	private Block blockAt(int paddr) {
+		int ppn = paddr / pageSize;
+
+		Block[] page = blockCache[ppn];
+		if (page == null)
+			page = blockCache[ppn] = new Block[pageSize / 4];
+
+		int index = (paddr % pageSize) / 4;
+		Block block = page[index];
+
+		if (block != null && block.epoch != fetchEpoch) {
+			if (block.matches(mainMemory, paddr))
+				block.epoch = fetchEpoch;
+			else
+				block = null;
+		}
+
+		if (block == null) {
+			block = buildBlock(paddr);
+			page[index] = block;
+		}
+
+		return block;
+	}
+
+	/**
+	 * Decode the basic block starting at the specified physical address. A
+	 * block ends after the delay slot of a branch or jump, after a syscall or
+	 * an invalid instruction, at the end of the page, or after
+	 * <tt>maxBlockLength</tt> instructions.
+	 * 
+	 * @param paddr the physical address of the first instruction.
+	 * @return the new block.
+	 */
+	private Block buildBlock(int paddr) {
+		int end = (paddr & ~(pageSize - 1)) + pageSize;
+
+		Decoded[] insts = new Decoded[maxBlockLength];
+		int length = 0;
+		boolean delaySlot = false;
+
+		for (int p = paddr; p < end && length < maxBlockLength; p += 4) {
+			Decoded decoded = decodeAt(p);
+			insts[length++] = decoded;
+
+			if (delaySlot)
+				break;
+
+			if (Lib.test(Mips.BRANCH, decoded.flags))
+				delaySlot = true;
+			else if (decoded.operation == Mips.SYSCALL
+					|| decoded.operation == Mips.UNIMPL
+					|| decoded.operation == Mips.INVALID)
+				break;
+		}
+
+		Decoded[] trimmed = new Decoded[length];
+		System.arraycopy(insts, 0, trimmed, 0, length);
+
+		return new Block(trimmed, fetchEpoch);
+	}
+
+	/**
+	 * Execute a single decoded instruction for the block engine. The common
+	 * operations are implemented directly; everything else goes through
+	 * <tt>Instruction</tt>. Each case follows the interpreter's order: read
+	 * the source registers, complete the previous delayed load, then write
+	 * the results and advance the PC.
+	 * 
+	 * @param d the instruction to execute.
+	 * @param inst used for operations not handled here.
+	 * @exception MipsException if the instruction caused an exception.
+	 */
+	private void step(Decoded d, Instruction inst) throws MipsException {
+		int[] r = registers;
+		int result, target;
+
+		switch (d.kind) {
+		case Decoded.ADDU:
+			result = r[d.rs] + r[d.rt];
+			break;
+		case Decoded.ADDIU:
+			result = r[d.rs] + d.imm;
+			break;
+		case Decoded.SUBU:
+			result = r[d.rs] - r[d.rt];
+			break;
+		case Decoded.AND:
+			result = r[d.rs] & r[d.rt];
+			break;
+		case Decoded.ANDI:
+			result = r[d.rs] & d.imm;
+			break;
+		case Decoded.OR:
+			result = r[d.rs] | r[d.rt];
+			break;
+		case Decoded.ORI:
+			result = r[d.rs] | d.imm;
+			break;
+		case Decoded.XOR:
+			result = r[d.rs] ^ r[d.rt];
+			break;
+		case Decoded.XORI:
+			result = r[d.rs] ^ d.imm;
+			break;
+		case Decoded.NOR:
+			result = ~(r[d.rs] | r[d.rt]);
+			break;
+		case Decoded.SLT:
+			result = (r[d.rs] < r[d.rt]) ? 1 : 0;
+			break;
+		case Decoded.SLTI:
+			result = (r[d.rs] < d.imm) ? 1 : 0;
+			break;
+		case Decoded.SLTU:
+			result = ((r[d.rs] & 0xFFFFFFFFL) < (r[d.rt] & 0xFFFFFFFFL)) ? 1
+					: 0;
+			break;
+		case Decoded.SLTIU:
+			result = ((r[d.rs] & 0xFFFFFFFFL) < d.imm) ? 1 : 0;
+			break;
+		case Decoded.LUI:
+			result = d.imm << 16;
+			break;
+		case Decoded.SLL:
+			result = r[d.rt] << d.sh;
+			break;
+		case Decoded.SRA:
+			result = r[d.rt] >> d.sh;
+			break;
+		case Decoded.SRL:
+			// like the interpreter, shift the sign-extended value
+			result = (int) ((long) r[d.rt] >>> d.sh);
+			break;
+		case Decoded.SLLV:
+			result = r[d.rt] << (r[d.rs] & 0x1F);
+			break;
+		case Decoded.SRAV:
+			result = r[d.rt] >> (r[d.rs] & 0x1F);
+			break;
+		case Decoded.SRLV:
+			result = (int) ((long) r[d.rt] >>> (r[d.rs] & 0x1F));
+			break;
+		case Decoded.MFLO:
+			result = r[regLo];
+			break;
+		case Decoded.MFHI:
+			result = r[regHi];
+			break;
+
+		case Decoded.MULT:
+		case Decoded.MULTU: {
+			long product;
+			if (d.kind == Decoded.MULT)
+				product = (long) r[d.rs] * (long) r[d.rt];
+			else
+				product = (r[d.rs] & 0xFFFFFFFFL) * (r[d.rt] & 0xFFFFFFFFL);
+
+			r[regLo] = (int) product;
+			r[regHi] = (int) (product >> 32);
+			finishLoad();
+			advancePC(r[regNextPC] + 4);
+			return;
+		}
+
+		case Decoded.LOAD:
+			delayedLoad(d.rt, readMem(r[d.rs] + d.imm, d.size), 0xFFFFFFFF);
+			advancePC(r[regNextPC] + 4);
+			return;
+		case Decoded.STORE:
+			writeMem(r[d.rs] + d.imm, d.size, r[d.rt]);
+			finishLoad();
+			advancePC(r[regNextPC] + 4);
+			return;
+
+		case Decoded.BEQ:
+			branch(r[d.rs] == r[d.rt], d.imm);
+			return;
+		case Decoded.BNE:
+			branch(r[d.rs] != r[d.rt], d.imm);
+			return;
+		case Decoded.BLEZ:
+			branch(r[d.rs] <= 0, d.imm);
+			return;
+		case Decoded.BGTZ:
+			branch(r[d.rs] > 0, d.imm);
+			return;
+		case Decoded.BLTZ:
+			branch(r[d.rs] < 0, d.imm);
+			return;
+		case Decoded.BGEZ:
+			branch(r[d.rs] >= 0, d.imm);
+			return;
+
+		case Decoded.J:
+		case Decoded.JAL:
+			target = (r[regNextPC] & 0xF0000000) | (d.target << 2);
+			finishLoad();
+			if (d.kind == Decoded.JAL)
+				r[regRA] = r[regNextPC] + 4;
+			advancePC(target);
+			return;
+		case Decoded.JR:
+		case Decoded.JALR:
+			target = r[d.rs];
+			finishLoad();
+			if (d.kind == Decoded.JALR && d.rd != 0)
+				r[d.rd] = r[regNextPC] + 4;
+			advancePC(target);
+			return;
+
+		default:
+			inst.run(d);
+			return;
+		}
+
+		finishLoad();
+		if (d.dstReg != 0)
+			r[d.dstReg] = result;
+		advancePC(r[regNextPC] + 4);
+	}
+
+	/**
+	 * Complete a conditional branch for <tt>step()</tt>.
+	 * 
+	 * @param taken <tt>true</tt> if the branch is taken.
+	 * @param offset the branch offset, in instructions.
+	 */
+	private void branch(boolean taken, int offset) {
+		int target = registers[regNextPC] + (offset << 2);
+
+		finishLoad();
+
+		if (taken)
+			advancePC(target);
+		else
+			advancePC(registers[regNextPC] + 4);
+	}
+
 	/**
 	 * Translate a virtual address into a physical address, using either a page
 	 * table or a TLB. Check for alignment, make sure the virtual page is valid,
@@ -400,7 +959,10 @@ public final class Processor {
 
 		Lib.assertTrue(size == 1 || size == 2 || size == 4);
 
-		Lib.bytesFromInt(mainMemory, translate(vaddr, size, true), size, value);
+		int paddr = translate(vaddr, size, true);
+		invalidateDecoded(paddr);
+
+		Lib.bytesFromInt(mainMemory, paddr, size, value);
 	}
 
 	/**
@@ -571,15 +1133,97 @@ public final class Processor {
 	/** The kernel exception handler, called on every user exception. */
 	private Runnable exceptionHandler = null;
 
+	/**
+	 * Decoded instructions, indexed by physical page and then by word within
+	 * the page. Pages that have never been executed from are <tt>null</tt>.
+	 */
+	private Decoded[][] decodeCache;
+
+	/**
+	 * <tt>true</tt> if <tt>fetchVBase</tt> and <tt>fetchPBase</tt> describe
+	 * the page used by the last instruction fetch. Cleared whenever the kernel
+	 * runs or the translation state changes.
+	 */
+	private boolean fetchCached = false;
+
+	/** The virtual and physical base addresses of the last fetched page. */
+	private int fetchVBase, fetchPBase;
+
+	/**
+	 * Incremented by <tt>forgetFetch()</tt>. A block last checked against
+	 * memory during an earlier epoch must be checked again before it is used.
+	 */
+	private int fetchEpoch = 0;
+
+	/** <tt>true</tt> if <tt>run()</tt> should use the block engine. */
+	private boolean useBlocks;
+
+	/** Blocks built by the block engine, indexed like <tt>decodeCache</tt>. */
+	private Block[][] blockCache;
+
+	/** Translates hot blocks, or <tt>null</tt> if not translating. */
+	private Translator translator = null;
+
+	/** The number of runs after which a block is translated. */
+	private int translateThreshold;
+
+	/** The processor operations available to translated code. */
+	private TranslationHost translationHost = new TranslationHost();
+
+	/** The exception caught for the translated code that just returned. */
+	private MipsException translationFault = null;
+
+	/** The maximum number of instructions in a block. */
+	private static final int maxBlockLength = 64;
+
+	/** <tt>true</tt> if <tt>retire()</tt> should credit ticks in batches. */
+	private boolean batchTicks;
+
+	/** The number of instructions not yet credited to <tt>Interrupt</tt>. */
+	private int pendingTicks = 0;
+
+	/**
+	 * The number of instructions after which the earliest pending interrupt
+	 * is due, counted from the last time ticks were credited, or 0 if not
+	 * known.
+	 */
+	private int tickBudget = 0;
+
 	private static final char dbgProcessor = 'p';
 
 	private static final char dbgDisassemble = 'm';
 
 	private static final char dbgFullDisassemble = 'M';
 
+	private static final char dbgInterrupt = 'i';
+
 	private class ProcessorPrivilege implements Privilege.ProcessorPrivilege {
 		public void flushPipe() {
 			finishLoad();
+			forgetFetch();
+		}
+	}
+
+	private class TranslationHost extends Translator.Host {
+		public int translate(int vaddr, int size, boolean writing) {
+			try {
+				return Processor.this.translate(vaddr, size, writing);
+			}
+			catch (MipsException e) {
+				translationFault = e;
+				return -1;
+			}
+		}
+
+		public boolean store(int paddr, int size, int value) {
+			invalidateDecoded(paddr);
+			Lib.bytesFromInt(mainMemory, paddr, size, value);
+
+			return !fetchCached;
+		}
+
+		public void delayedLoad(int target, int value) {
+			Processor.this.delayedLoad(target, value, 0xFFFFFFFF);
 		}
 	}
 
@@ -598,6 +1242,9 @@ public final class Processor {
 		}
 
 		public void handle() {
+			// the kernel may look at the time
+			flushTicks();
+
 			writeRegister(regCause, cause);
 
 			if (hasBadVAddr)
@@ -607,6 +1254,7 @@ public final class Processor {
 				System.out.println("exception: " + exceptionNames[cause]);
 
 			finishLoad();
+			forgetFetch();
 
 			Lib.assertTrue(exceptionHandler != null);
 
@@ -631,6 +1279,16 @@ public final class Processor {
 			writeBack();
 		}
 
+		public void run(Decoded decoded) throws MipsException {
+			// already fetched by the block engine
+			this.decoded = decoded;
+			value = decoded.value;
+
+			decode();
+			execute();
+			writeBack();
+		}
+
 		private boolean test(int flag) {
 			return Lib.test(flag, flags);
 		}
@@ -641,63 +1299,40 @@ public final class Processor {
 				System.out.print("PC=0x" + Lib.toHexString(registers[regPC])
 						+ "\t");
 
-			value = readMem(registers[regPC], 4);
+			if (Lib.test(dbgProcessor)) {
+				// go the long way around so the trace shows the fetch
+				value = readMem(registers[regPC], 4);
+				decoded = new Decoded(value);
+			}
+			else {
+				decoded = decodeAt(translateFetch(registers[regPC]));
+				value = decoded.value;
+			}
 		}
 
 		private void decode() {
-			op = Lib.extract(value, 26, 6);
-			rs = Lib.extract(value, 21, 5);
-			rt = Lib.extract(value, 16, 5);
-			rd = Lib.extract(value, 11, 5);
-			sh = Lib.extract(value, 6, 5);
-			func = Lib.extract(value, 0, 6);
-			target = Lib.extract(value, 0, 26);
-			imm = Lib.extend(value, 0, 16);
-
-			Mips info;
-			switch (op) {
-			case 0:
-				info = Mips.specialtable[func];
-				break;
-			case 1:
-				info = Mips.regimmtable[rt];
-				break;
-			default:
-				info = Mips.optable[op];
-				break;
-			}
-
-			operation = info.operation;
-			name = info.name;
-			format = info.format;
-			flags = info.flags;
+			op = decoded.op;
+			rs = decoded.rs;
+			rt = decoded.rt;
+			rd = decoded.rd;
+			sh = decoded.sh;
+			func = decoded.func;
+			target = decoded.target;
+			imm = decoded.imm;
+
+			operation = decoded.operation;
+			name = decoded.name;
+			format = decoded.format;
+			flags = decoded.flags;
+			size = decoded.size;
+			dstReg = decoded.dstReg;
 
 			mask = 0xFFFFFFFF;
 			branch = true;
 
-			// get memory access size
-			if (test(Mips.SIZEB))
-				size = 1;
-			else if (test(Mips.SIZEH))
-				size = 2;
-			else if (test(Mips.SIZEW))
-				size = 4;
-			else
-				size = 0;
-
 			// get nextPC
 			nextPC = registers[regNextPC] + 4;
 
-			// get dstReg
-			if (test(Mips.DSTRA))
-				dstReg = regRA;
-			else if (format == Mips.IFMT)
-				dstReg = rt;
-			else if (format == Mips.RFMT)
-				dstReg = rd;
-			else
-				dstReg = -1;
-
 			// get jtarget
 			if (format == Mips.RFMT)
 				jtarget = registers[rs];
@@ -708,11 +1343,6 @@ public final class Processor {
 			else
 				jtarget = -1;
 
-			// get imm
-			if (test(Mips.UNSIGNED)) {
-				imm &= 0xFFFF;
-			}
-
 			// get addr
 			addr = registers[rs] + imm;
 
@@ -1068,6 +1698,8 @@ public final class Processor {
 		}
 
 		// state used to execute a single instruction
+		Decoded decoded;
+
 		int value, op, rs, rt, rd, sh, func, target, imm;
 
 		int operation, format, flags;
@@ -1085,6 +1717,211 @@ public final class Processor {
 		boolean branch;
 	}
 
+	/**
+	 * The parts of an instruction that depend only on the instruction word, so
+	 * that they can be computed once and cached by physical address.
+	 */
+	static class Decoded {
+		Decoded(int value) {
+			this.value = value;
+
+			op = Lib.extract(value, 26, 6);
+			rs = Lib.extract(value, 21, 5);
+			rt = Lib.extract(value, 16, 5);
+			rd = Lib.extract(value, 11, 5);
+			sh = Lib.extract(value, 6, 5);
+			func = Lib.extract(value, 0, 6);
+			target = Lib.extract(value, 0, 26);
+
+			Mips info;
+			switch (op) {
+			case 0:
+				info = Mips.specialtable[func];
+				break;
+			case 1:
+				info = Mips.regimmtable[rt];
+				break;
+			default:
+				info = Mips.optable[op];
+				break;
+			}
+
+			operation = info.operation;
+			name = info.name;
+			format = info.format;
+			flags = info.flags;
+
+			// get memory access size
+			if (Lib.test(Mips.SIZEB, flags))
+				size = 1;
+			else if (Lib.test(Mips.SIZEH, flags))
+				size = 2;
+			else if (Lib.test(Mips.SIZEW, flags))
+				size = 4;
+			else
+				size = 0;
+
+			// get dstReg
+			if (Lib.test(Mips.DSTRA, flags))
+				dstReg = regRA;
+			else if (format == Mips.IFMT)
+				dstReg = rt;
+			else if (format == Mips.RFMT)
+				dstReg = rd;
+			else
+				dstReg = -1;
+
+			// get imm
+			if (Lib.test(Mips.UNSIGNED, flags))
+				imm = Lib.extract(value, 0, 16);
+			else
+				imm = Lib.extend(value, 0, 16);
+
+			kind = classify();
+		}
+
+		/**
+		 * Pick the case of <tt>Processor.step()</tt> that implements this
+		 * instruction, or <tt>GENERIC</tt> if it must go through
+		 * <tt>Instruction</tt>.
+		 */
+		private int classify() {
+			boolean immediate = (format == Mips.IFMT);
+			boolean unsigned = Lib.test(Mips.UNSIGNED, flags);
+			boolean variable = (format == Mips.RFMT && !Lib.test(Mips.SRC1SH,
+					flags));
+
+			if (Lib.test(Mips.OVERFLOW, flags))
+				return GENERIC;
+
+			switch (operation) {
+			case Mips.ADD:
+				return immediate ? ADDIU : ADDU;
+			case Mips.SUB:
+				return SUBU;
+			case Mips.AND:
+				return immediate ? ANDI : AND;
+			case Mips.OR:
+				return immediate ? ORI : OR;
+			case Mips.XOR:
+				return immediate ? XORI : XOR;
+			case Mips.NOR:
+				return NOR;
+			case Mips.SLT:
+				if (unsigned)
+					return immediate ? SLTIU : SLTU;
+				else
+					return immediate ? SLTI : SLT;
+			case Mips.LUI:
+				return LUI;
+			case Mips.SLL:
+				return variable ? SLLV : SLL;
+			case Mips.SRA:
+				return variable ? SRAV : SRA;
+			case Mips.SRL:
+				return variable ? SRLV : SRL;
+			case Mips.MFLO:
+				return MFLO;
+			case Mips.MFHI:
+				return MFHI;
+			case Mips.MULT:
+				return unsigned ? MULTU : MULT;
+			case Mips.LOAD:
+				return LOAD;
+			case Mips.STORE:
+				return STORE;
+			}
+
+			if (Lib.test(Mips.LINK, flags) && format != Mips.JFMT
+					&& format != Mips.RFMT)
+				return GENERIC;
+
+			switch (operation) {
+			case Mips.BEQ:
+				return BEQ;
+			case Mips.BNE:
+				return BNE;
+			case Mips.BLEZ:
+				return BLEZ;
+			case Mips.BGTZ:
+				return BGTZ;
+			case Mips.BLTZ:
+				return BLTZ;
+			case Mips.BGEZ:
+				return BGEZ;
+			case Mips.JUMP:
+				if (format == Mips.JFMT)
+					return Lib.test(Mips.LINK, flags) ? JAL : J;
+				else
+					return Lib.test(Mips.LINK, flags) ? JALR : JR;
+			default:
+				return GENERIC;
+			}
+		}
+
+		final int value, op, rs, rt, rd, sh, func, target, imm;
+
+		final int operation, format, flags;
+
+		final String name;
+
+		final int size, dstReg;
+
+		/** The case of <tt>Processor.step()</tt> that executes this. */
+		final int kind;
+
+		// kinds of instructions handled directly by the block engine
+		static final int GENERIC = 0, ADDU = 1, ADDIU = 2, SUBU = 3, AND = 4,
+				ANDI = 5, OR = 6, ORI = 7, XOR = 8, XORI = 9, NOR = 10,
+				SLT = 11, SLTI = 12, SLTU = 13, SLTIU = 14, LUI = 15, SLL = 16,
+				SRA = 17, SRL = 18, SLLV = 19, SRAV = 20, SRLV = 21, MFLO = 22,
+				MFHI = 23, MULT = 24, MULTU = 25, LOAD = 26, STORE = 27,
+				BEQ = 28, BNE = 29, BLEZ = 30, BGTZ = 31, BLTZ = 32, BGEZ = 33,
+				J = 34, JAL = 35, JR = 36, JALR = 37;
+	}
+
+	/**
+	 * A basic block for the block engine: the decoded instructions at
+	 * consecutive physical addresses, up to and including the delay slot of
+	 * the branch that ends it.
+	 */
+	private static class Block {
+		Block(Decoded[] insts, int epoch) {
+			this.insts = insts;
+			this.epoch = epoch;
+		}
+
+		/**
+		 * Test whether memory still holds the instructions this block was
+		 * decoded from.
+		 */
+		boolean matches(byte[] memory, int paddr) {
+			for (int i = 0; i < insts.length; i++) {
+				if (Lib.bytesToInt(memory, paddr + i * 4) != insts[i].value)
+					return false;
+			}
+
+			return true;
+		}
+
+		final Decoded[] insts;
+
+		/** The <tt>fetchEpoch</tt> at which this was last checked. */
+		int epoch;
+
+		/** The number of times this has been run, until translated. */
+		int count = 0;
+
+		/** The translated code, or <tt>null</tt> if not translated. */
+		Translator.Code code = null;
+
+		/** The number of instructions <tt>code</tt> covers. */
+		int codeLength;
+
+		/** The virtual address <tt>code</tt> was translated for. */
+		int codeVAddr;
+	}
+
 	private static class Mips {
 		Mips() {
 		}
@@ -19,7 +19,7 @@ public final class Stats {
 	 */
 	public void print() {
 		System.out.println("Ticks: total " + totalTicks + ", kernel "
-				+ kernelTicks + ", user " + userTicks);
+				+ kernelTicks + ", user " + userTicks + ", idle " + idleTicks);
 		System.out.println("Disk I/O: reads " + numDiskReads + ", writes "
 				+ numDiskWrites);
 		System.out.println("Console I/O: reads " + numConsoleReads
@@ -28,6 +28,12 @@ public final class Stats {
 				+ ", TLB misses " + numTLBMisses);
 		System.out.println("Network I/O: received " + numPacketsReceived
 				+ ", sent " + numPacketsSent);
+		System.out.println("Decode cache: hits " + numDecodeCacheHits
+				+ ", misses " + numDecodeCacheMisses);
+		System.out.println("Translation: blocks " + numTranslatedBlocks
+				+ ", time " + (translationTime / 1000000) + " ms");
+		System.out.println("Deadlines: jobs " + numDeadlineJobs + ", missed "
+				+ numDeadlineMisses);
 	}
 
 	/**
@@ -35,6 +41,13 @@ public final class Stats {
 	 */
 	public long totalTicks = 0;
 
+	/**
+	 * The total amount of simulated time skipped because no thread was ready
+	 * to run. Included in <tt>totalTicks</tt>, but not in
+	 * <tt>kernelTicks</tt> or <tt>userTicks</tt>.
+	 */
+	public long idleTicks = 0;
+
 	/**
 	 * The total amount of simulated time that Nachos has spent in kernel mode.
 	 */
@@ -69,6 +82,35 @@ public final class Stats {
 	/** The total number of packets Nachos has received from the network. */
 	public int numPacketsReceived = 0;
 
+	/**
+	 * The total number of instruction fetches satisfied by the processor's
+	 * decoded instruction cache.
+	 */
+	public long numDecodeCacheHits = 0;
+
+	/**
+	 * The total number of instruction fetches that had to decode the
+	 * instruction word.
+	 */
+	public long numDecodeCacheMisses = 0;
+
+	/**
+	 * The total number of basic blocks translated to JVM classes by the
+	 * processor.
+	 */
+	public long numTranslatedBlocks = 0;
+
+	/**
+	 * The real (host) time spent translating basic blocks, in nanoseconds.
+	 */
+	public long translationTime = 0;
+
+	/** The number of periodic real-time jobs that have finished. */
+	public int numDeadlineJobs = 0;
+
+	/** The number of periodic real-time jobs that finished late. */
+	public int numDeadlineMisses = 0;
+
 	/**
 	 * The amount to advance simulated time after each user instructions is
 	 * executed.
@@ -6,12 +6,19 @@ import nachos.security.*;
 import nachos.threads.KThread;
 
 import java.util.Vector;
+import java.util.concurrent.locks.LockSupport;
+import java.lang.reflect.Method;
 import java.security.PrivilegedAction;
 
 /**
  * A TCB simulates the low-level details necessary to create, context-switch,
  * and destroy Nachos threads. Each TCB controls an underlying JVM Thread
- * object.
+ * object. If the <tt>nachos.conf</tt> key <tt>TCB.virtualThreads</tt> is
+ * <tt>true</tt>, these are virtual threads rather than platform threads, so
+ * that many more TCBs can exist at once. The virtual threads are all carried
+ * by one host thread, so a context switch just moves that host thread from
+ * one continuation to the next, without involving the OS scheduler. Either
+ * way, only one TCB runs at a time.
  * 
  * <p>
  * Do not use any methods in <tt>java.lang.Thread</tt>, as they are not
@@ -39,6 +46,60 @@ public final class TCB {
 	public static void givePrivilege(Privilege privilege) {
 		TCB.privilege = privilege;
 		privilege.tcb = new TCBPrivilege();
+
+		if (Config.getBoolean("TCB.virtualThreads", false))
+			findVirtualThreads();
+
+		spinCount = Config.getInteger("TCB.spinCount", 0);
+		if (Config.getBoolean("TCB.switchHistogram", false))
+			switchHistogram = new long[64];
+	}
+
+	/**
+	 * Look up the virtual thread API. It is only available from Java 21 on,
+	 * so it is used reflectively, and Nachos still builds for older releases.
+	 */
+	private static void findVirtualThreads() {
+		try {
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			unstarted = Class.forName("java.lang.Thread$Builder").getMethod(
+					"unstarted", Runnable.class);
+		}
+		catch (Exception e) {
+			Lib.assertNotReached("TCB.virtualThreads requires Java 21 or later");
+		}
+
+		/*
+		 * Only one TCB runs at a time, so a single carrier thread is enough,
+		 * and it turns every context switch into an unmount and a mount on the
+		 * same host thread. Limiting the pool size as well keeps the scheduler
+		 * from adding carriers while a TCB blocks in I/O; it could not create
+		 * them without privilege anyway. The scheduler reads these when the
+		 * first virtual thread is created, which has not happened yet.
+		 */
+		System.setProperty("jdk.virtualThreadScheduler.parallelism", "1");
+		System.setProperty("jdk.virtualThreadScheduler.maxPoolSize", "1");
+	}
+
+	/**
+	 * Test whether TCBs run on virtual threads.
+	 * 
+	 * @return <tt>true</tt> if the <tt>nachos.conf</tt> key
+	 * <tt>TCB.virtualThreads</tt> is <tt>true</tt>.
+	 */
+	public static boolean usingVirtualThreads() {
+		return ofVirtual != null;
+	}
+
+	/**
+	 * Return the maximum number of started, non-destroyed TCBs that can be in
+	 * existence.
+	 * 
+	 * @return <tt>maxVirtualThreads</tt> if TCBs run on virtual threads,
+	 * otherwise <tt>maxThreads</tt>.
+	 */
+	public static int maxThreads() {
+		return usingVirtualThreads() ? maxVirtualThreads : maxThreads;
 	}
 
 	/**
@@ -68,7 +129,7 @@ public final class TCB {
 		 * Make sure there aren't too many running TCBs already. This limitation
 		 * exists in an effort to prevent wild thread usage.
 		 */
-		Lib.assertTrue(runningThreads.size() < maxThreads);
+		Lib.assertTrue(runningThreads.size() < maxThreads());
 
 		isFirstTCB = (currentTCB == null);
 
@@ -102,7 +163,7 @@ public final class TCB {
 
 			privilege.doPrivileged(new Runnable() {
 				public void run() {
-					javaThread = new Thread(tcbTarget);
+					javaThread = newJavaThread(tcbTarget);
 				}
 			});
 
@@ -115,9 +176,33 @@ public final class TCB {
 			 */
 			currentTCB.running = false;
 
-			this.javaThread.start();
+			startJavaThread();
 			currentTCB.waitForInterrupt();
 		}
+		else if (usingVirtualThreads()) {
+			/*
+			 * This is the first TCB, but it gets a virtual thread like the
+			 * others, so that switching to and from it is just as cheap. The
+			 * current Java thread has nothing left to do but wait for Nachos
+			 * to exit (virtual threads are daemons, so it cannot just return).
+			 */
+			tcbTarget = new Runnable() {
+				public void run() {
+					threadroot();
+				}
+			};
+
+			privilege.doPrivileged(new Runnable() {
+				public void run() {
+					javaThread = newJavaThread(tcbTarget);
+				}
+			});
+
+			startJavaThread();
+
+			while (true)
+				LockSupport.park();
+		}
 		else {
 			/*
 			 * This is the first TCB, so we don't need to make a new Java thread
@@ -130,6 +215,35 @@ public final class TCB {
 		}
 	}
 
+	/**
+	 * Start the Java thread of this TCB. Starting a virtual thread can create
+	 * the carrier threads of the virtual thread scheduler, so this is also
+	 * privileged.
+	 */
+	private void startJavaThread() {
+		privilege.doPrivileged(new Runnable() {
+			public void run() {
+				javaThread.start();
+			}
+		});
+	}
+
+	/**
+	 * Create an unstarted Java thread for a new TCB. This is a privileged
+	 * operation.
+	 */
+	private static Thread newJavaThread(Runnable target) {
+		if (!usingVirtualThreads())
+			return new Thread(target);
+
+		try {
+			return (Thread) unstarted.invoke(ofVirtual.invoke(null), target);
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	/**
 	 * Return the TCB of the currently running thread.
 	 */
@@ -169,6 +283,9 @@ public final class TCB {
 		TCB previous = currentTCB;
 		previous.running = false;
 
+		if (switchHistogram != null)
+			switchStartTime = System.nanoTime();
+
 		this.interrupt();
 		previous.yield();
 	}
@@ -199,6 +316,31 @@ public final class TCB {
 		this.javaThread = null;
 	}
 
+	/**
+	 * Print the histogram of host time per context switch, if the
+	 * <tt>nachos.conf</tt> key <tt>TCB.switchHistogram</tt> is <tt>true</tt>.
+	 * Called by <tt>Machine.halt()</tt>. Each line counts the switches that
+	 * took from 2<sup>k</sup> up to 2<sup>k+1</sup> nanoseconds, measured
+	 * from <tt>contextSwitch()</tt> until the new TCB is running.
+	 */
+	static void printSwitchHistogram() {
+		if (switchHistogram == null)
+			return;
+
+		long total = 0;
+		for (int k = 0; k < switchHistogram.length; k++)
+			total += switchHistogram[k];
+
+		System.out.println("Context switches: " + total
+				+ ", host ns per switch:");
+
+		for (int k = 0; k < switchHistogram.length; k++) {
+			if (switchHistogram[k] != 0)
+				System.out.println("  " + (1L << k) + "-" + ((1L << (k + 1)) - 1)
+						+ ": " + switchHistogram[k]);
+		}
+	}
+
 	/**
 	 * Destroy all TCBs and exit Nachos. Same as <tt>Machine.terminate()</tt>.
 	 */
@@ -288,35 +430,46 @@ public final class TCB {
 		}
 
 		currentTCB = this;
+
+		if (switchHistogram != null && switchStartTime != 0) {
+			long time = System.nanoTime() - switchStartTime;
+			switchStartTime = 0;
+
+			switchHistogram[63 - Long.numberOfLeadingZeros(Math.max(1, time))]++;
+		}
 	}
 
 	/**
-	 * Waits on the monitor bound to this TCB until its <tt>running</tt> flag is
+	 * Waits until the <tt>running</tt> flag of this TCB is
 	 * set to <tt>true</tt>. <tt>waitForInterrupt()</tt> is used whenever a TCB
 	 * needs to go to wait for its turn to run. This includes the ping-pong
 	 * process of starting and destroying TCBs, as well as in context switching
 	 * from this TCB to another. We don't rely on <tt>currentTCB</tt>, since it
 	 * is updated by <tt>contextSwitch()</tt> before we get called.
+	 * 
+	 * <p>
+	 * The thread first polls the flag <tt>TCB.spinCount</tt> times, which can
+	 * save parking when the switch back is quick, and then parks. Parking
+	 * rather than waiting on a monitor also keeps a virtual thread from
+	 * holding on to its carrier thread. A spurious return from
+	 * <tt>park()</tt> just goes around the loop again.
 	 */
-	private synchronized void waitForInterrupt() {
-		while (!running) {
-			try {
-				wait();
-			}
-			catch (InterruptedException e) {
-			}
-		}
+	private void waitForInterrupt() {
+		for (int i = 0; i < spinCount && !running; i++)
+			;
+
+		while (!running)
+			LockSupport.park(this);
 	}
 
 	/**
 	 * Wake up this TCB by setting its <tt>running</tt> flag to <tt>true</tt>
-	 * and signalling the monitor bound to it. Used in the ping-pong process of
-	 * starting and destroying TCBs, as well as in context switching to this
-	 * TCB.
+	 * and unparking its Java thread. Used in the ping-pong process of starting
+	 * and destroying TCBs, as well as in context switching to this TCB.
 	 */
-	private synchronized void interrupt() {
+	private void interrupt() {
 		running = true;
-		notify();
+		LockSupport.unpark(javaThread);
 	}
 
 	private void associateThread(KThread thread) {
@@ -346,6 +499,30 @@ public final class TCB {
 	 */
 	public static final int maxThreads = 250;
 
+	/**
+	 * The maximum number of started, non-destroyed TCB's that can be in
+	 * existence when TCBs run on virtual threads.
+	 */
+	public static final int maxVirtualThreads = 100000;
+
+	/** The number of times to poll before parking in a handoff. */
+	private static int spinCount;
+
+	/**
+	 * The number of context switches by the log<sub>2</sub> of the host
+	 * nanoseconds they took, or <tt>null</tt> if not being recorded.
+	 */
+	private static long[] switchHistogram = null;
+
+	/** When the context switch in progress started, or 0. */
+	private static volatile long switchStartTime = 0;
+
+	/** <tt>Thread.ofVirtual()</tt>, or <tt>null</tt> if not used. */
+	private static Method ofVirtual = null;
+
+	/** <tt>Thread.Builder.unstarted()</tt>, or <tt>null</tt> if not used. */
+	private static Method unstarted = null;
+
 	/**
 	 * A reference to the currently running TCB. It is initialized to
 	 * <tt>null</tt> when the <tt>TCB</tt> class is loaded, and then the first
@@ -368,7 +545,7 @@ public final class TCB {
 	 * each TCB object. TCB objects are removed only in each of the
 	 * <tt>catch</tt> clauses of <tt>threadroot()</tt>, one of which is always
 	 * invoked on thread termination. The maximum number of threads in
-	 * <tt>runningThreads</tt> is limited to <tt>maxThreads</tt> by
+	 * <tt>runningThreads</tt> is limited to <tt>maxThreads()</tt> by
 	 * <tt>start(Runnable)</tt>. If <tt>threadroot()</tt> drops the number of
 	 * TCB objects in <tt>runningThreads</tt> to zero, Nachos exits, so once the
 	 * first TCB is created, this vector is basically never empty.
@@ -403,7 +580,7 @@ public final class TCB {
 	 * TCB, this is temporarily true for a thread other than that of the current
 	 * TCB.
 	 */
-	private boolean running = false;
+	private volatile boolean running = false;
 
 	/**
 	 * Set to <tt>true</tt> by <tt>destroy()</tt>, so that when
@@ -60,6 +60,18 @@ public final class Timer {
 		return privilege.stats.totalTicks;
 	}
 
+	/**
+	 * Count a periodic real-time job as finished in the machine statistics,
+	 * and as a missed deadline if it finished late.
+	 * 
+	 * @param missed <tt>true</tt> if the job finished after its deadline.
+	 */
+	public void countDeadline(boolean missed) {
+		privilege.stats.numDeadlineJobs++;
+		if (missed)
+			privilege.stats.numDeadlineMisses++;
+	}
+
 	private void timerInterrupt() {
 		scheduleInterrupt();
 		scheduleAutoGraderInterrupt();
@@ -0,0 +1,881 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import nachos.security.*;
+
+import java.io.ByteArrayOutputStream;
+import java.security.PrivilegedAction;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Translates hot basic blocks of MIPS code into JVM classes, for the
+ * <tt>translate</tt> engine of <tt>Processor</tt>. Each generated class
+ * performs the register and memory effects of a block directly on the
+ * processor's register array and main memory.
+ *
+ * <p>
+ * Only the operations the block engine executes itself are translated; a
+ * block is translated up to the first instruction that is not. Generated code
+ * never throws a <tt>MipsException</tt>. Instead, when a load or store cannot
+ * be translated, it stops before the faulting instruction, leaving the
+ * processor exactly as the interpreter would have, and lets the processor
+ * handle the exception.
+ *
+ * <p>
+ * Classes are defined by a class loader owned by the machine, which is created
+ * with privilege because <tt>NachosSecurityManager</tt> does not allow Nachos
+ * code to create class loaders.
+ */
+class Translator {
+	/**
+	 * Allocate a new translator.
+	 *
+	 * @param privilege encapsulates privileged access to the Nachos machine.
+	 */
+	Translator(Privilege privilege) {
+		this.privilege = privilege;
+
+		loader = (Loader) privilege.doPrivileged(new PrivilegedAction<Loader>() {
+			public Loader run() {
+				return new Loader(Translator.class.getClassLoader());
+			}
+		});
+	}
+
+	/**
+	 * Translated code for a block.
+	 */
+	public interface Code {
+		/**
+		 * Execute the block.
+		 *
+		 * @param registers the processor's registers.
+		 * @param memory the processor's main memory.
+		 * @param host provides the processor operations the code needs.
+		 * @return the number of instructions executed.
+		 */
+		public int run(int[] registers, byte[] memory, Host host);
+	}
+
+	/**
+	 * The processor operations available to translated code.
+	 */
+	public static abstract class Host {
+		Host() {
+		}
+
+		/**
+		 * Translate a virtual address for a load or store. If the access would
+		 * cause an exception, remember the exception for the processor to
+		 * handle.
+		 *
+		 * @param vaddr the virtual address.
+		 * @param size the size of the access (1, 2, or 4 bytes).
+		 * @param writing <tt>true</tt> if the access is a store.
+		 * @return the physical address, or <tt>-1</tt> if the access caused an
+		 * exception.
+		 */
+		public abstract int translate(int vaddr, int size, boolean writing);
+
+		/**
+		 * Store to main memory at a physical address returned by
+		 * <tt>translate()</tt>.
+		 *
+		 * @param paddr the physical address.
+		 * @param size the number of bytes to store (1, 2, or 4).
+		 * @param value the value to store.
+		 * @return <tt>true</tt> if the store overwrote code that may be
+		 * running, in which case the translated code must stop.
+		 */
+		public abstract boolean store(int paddr, int size, int value);
+
+		/**
+		 * Leave a load pending, as it was when the translated code stopped.
+		 *
+		 * @param target the register being loaded.
+		 * @param value the value being loaded.
+		 */
+		public abstract void delayedLoad(int target, int value);
+	}
+
+	/**
+	 * Return the number of instructions at the start of the specified block
+	 * that can be translated.
+	 *
+	 * @param insts the block's instructions.
+	 * @return the length of the longest translatable prefix of <i>insts</i>.
+	 */
+	static int translatable(Processor.Decoded[] insts) {
+		for (int i = 0; i < insts.length; i++) {
+			if (insts[i].kind == Processor.Decoded.GENERIC)
+				return i;
+
+			// a branch in a delay slot is undefined; leave it to the
+			// interpreter
+			if (i > 0 && isBranch(insts[i - 1]) && isBranch(insts[i]))
+				return i;
+		}
+
+		return insts.length;
+	}
+
+	/**
+	 * Translate the first <i>length</i> instructions of a block. Code is
+	 * shared by all blocks with the same instructions at the same virtual
+	 * address, so a program that is run again, or whose pages are reloaded,
+	 * is not translated again.
+	 *
+	 * @param insts the block's instructions.
+	 * @param length the number of instructions to translate, as returned by
+	 * <tt>translatable()</tt>.
+	 * @param vaddr the virtual address of the first instruction.
+	 * @return the translated code.
+	 */
+	Code translate(Processor.Decoded[] insts, int length, int vaddr) {
+		Lib.assertTrue(length > 0 && length <= translatable(insts));
+
+		Key key = new Key(insts, length, vaddr);
+		Code code = codeCache.get(key);
+		if (code != null)
+			return code;
+
+		long startTime = System.nanoTime();
+
+		final String name = "TranslatedBlock" + numClasses++;
+		final byte[] classFile = generate(name, insts, length, vaddr);
+
+		code = (Code) privilege.doPrivileged(new PrivilegedAction<Code>() {
+			public Code run() {
+				try {
+					return (Code) loader.define(name, classFile)
+							.getDeclaredConstructor().newInstance();
+				}
+				catch (ReflectiveOperationException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+
+		privilege.stats.numTranslatedBlocks++;
+		privilege.stats.translationTime += System.nanoTime() - startTime;
+
+		codeCache.put(key, code);
+		return code;
+	}
+
+	/**
+	 * Identifies translated code by the instruction words it was generated
+	 * from and their virtual address.
+	 */
+	private static class Key {
+		Key(Processor.Decoded[] insts, int length, int vaddr) {
+			this.vaddr = vaddr;
+
+			words = new int[length];
+			for (int i = 0; i < length; i++)
+				words[i] = insts[i].value;
+
+			hash = vaddr * 31 + Arrays.hashCode(words);
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+
+			Key key = (Key) o;
+			return key.vaddr == vaddr && Arrays.equals(key.words, words);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		private int vaddr, hash;
+
+		private int[] words;
+	}
+
+	private static boolean isBranch(Processor.Decoded d) {
+		return d.kind >= Processor.Decoded.BEQ
+				&& d.kind <= Processor.Decoded.JALR;
+	}
+
+	private byte[] generate(String name, Processor.Decoded[] insts,
+			int length, int vaddr) {
+		ClassWriter cw = new ClassWriter();
+
+		int thisClass = cw.classRef(name);
+		int superClass = cw.classRef("java/lang/Object");
+		int codeInterface = cw.classRef("nachos/machine/Translator$Code");
+		int objectInit = cw.methodRef("java/lang/Object", "<init>", "()V");
+
+		byte[] init = { aload_0, (byte) invokespecial,
+				(byte) (objectInit >> 8), (byte) objectInit, (byte) return_ };
+
+		byte[] run = new BlockWriter(cw, insts, length, vaddr).generate();
+
+		return cw.toByteArray(thisClass, superClass, codeInterface, init, run);
+	}
+
+	/**
+	 * Generates the <tt>run()</tt> method for a block.
+	 */
+	private static class BlockWriter {
+		BlockWriter(ClassWriter cw, Processor.Decoded[] insts, int length,
+				int vaddr) {
+			this.cw = cw;
+			this.insts = insts;
+			this.length = length;
+			this.vaddr = vaddr;
+
+			hostTranslate = cw.methodRef("nachos/machine/Translator$Host",
+					"translate", "(IIZ)I");
+			hostStore = cw.methodRef("nachos/machine/Translator$Host",
+					"store", "(III)Z");
+			hostDelayedLoad = cw.methodRef("nachos/machine/Translator$Host",
+					"delayedLoad", "(II)V");
+			bytesToInt = cw.methodRef("nachos/machine/Lib", "bytesToInt",
+					"([BII)I");
+		}
+
+		byte[] generate() {
+			for (int i = 0; i < length; i++) {
+				Processor.Decoded d = insts[i];
+
+				if (isBranch(d))
+					branchIndex = i;
+
+				instruction(i, d);
+			}
+
+			exit(length);
+
+			return code.toByteArray();
+		}
+
+		private void instruction(int i, Processor.Decoded d) {
+			int pc = vaddr + i * 4;
+
+			switch (d.kind) {
+			case Processor.Decoded.ADDU:
+				binary(d.rs, d.rt, iadd);
+				break;
+			case Processor.Decoded.ADDIU:
+				binaryImm(d.rs, d.imm, iadd);
+				break;
+			case Processor.Decoded.SUBU:
+				binary(d.rs, d.rt, isub);
+				break;
+			case Processor.Decoded.AND:
+				binary(d.rs, d.rt, iand);
+				break;
+			case Processor.Decoded.ANDI:
+				binaryImm(d.rs, d.imm, iand);
+				break;
+			case Processor.Decoded.OR:
+				binary(d.rs, d.rt, ior);
+				break;
+			case Processor.Decoded.ORI:
+				binaryImm(d.rs, d.imm, ior);
+				break;
+			case Processor.Decoded.XOR:
+				binary(d.rs, d.rt, ixor);
+				break;
+			case Processor.Decoded.XORI:
+				binaryImm(d.rs, d.imm, ixor);
+				break;
+			case Processor.Decoded.NOR:
+				binary(d.rs, d.rt, ior);
+				pushInt(-1);
+				op(ixor);
+				break;
+			case Processor.Decoded.SLT:
+				loadReg(d.rs);
+				loadReg(d.rt);
+				compare();
+				break;
+			case Processor.Decoded.SLTI:
+				loadReg(d.rs);
+				pushInt(d.imm);
+				compare();
+				break;
+			case Processor.Decoded.SLTU:
+				// flipping the sign bits makes a signed compare unsigned
+				loadReg(d.rs);
+				pushInt(0x80000000);
+				op(ixor);
+				loadReg(d.rt);
+				pushInt(0x80000000);
+				op(ixor);
+				compare();
+				break;
+			case Processor.Decoded.SLTIU:
+				loadReg(d.rs);
+				pushInt(0x80000000);
+				op(ixor);
+				pushInt(d.imm ^ 0x80000000);
+				compare();
+				break;
+			case Processor.Decoded.LUI:
+				pushInt(d.imm << 16);
+				break;
+			case Processor.Decoded.SLL:
+				binaryImm(d.rt, d.sh, ishl);
+				break;
+			case Processor.Decoded.SRA:
+			case Processor.Decoded.SRL:
+				// the interpreter's SRL shifts the sign-extended value, so it
+				// is an arithmetic shift too
+				binaryImm(d.rt, d.sh, ishr);
+				break;
+			case Processor.Decoded.SLLV:
+				binary(d.rt, d.rs, ishl);
+				break;
+			case Processor.Decoded.SRAV:
+			case Processor.Decoded.SRLV:
+				binary(d.rt, d.rs, ishr);
+				break;
+			case Processor.Decoded.MFLO:
+				loadReg(Processor.regLo);
+				break;
+			case Processor.Decoded.MFHI:
+				loadReg(Processor.regHi);
+				break;
+
+			case Processor.Decoded.MULT:
+			case Processor.Decoded.MULTU:
+				multiply(d.rs, d.rt, d.kind == Processor.Decoded.MULTU);
+				finishLoad();
+				return;
+
+			case Processor.Decoded.LOAD:
+				load(i, d);
+				return;
+			case Processor.Decoded.STORE:
+				store(i, d);
+				return;
+
+			case Processor.Decoded.BEQ:
+				conditional(d, if_icmpne, pc);
+				return;
+			case Processor.Decoded.BNE:
+				conditional(d, if_icmpeq, pc);
+				return;
+			case Processor.Decoded.BLEZ:
+				conditional(d, ifgt, pc);
+				return;
+			case Processor.Decoded.BGTZ:
+				conditional(d, ifle, pc);
+				return;
+			case Processor.Decoded.BLTZ:
+				conditional(d, ifge, pc);
+				return;
+			case Processor.Decoded.BGEZ:
+				conditional(d, iflt, pc);
+				return;
+
+			case Processor.Decoded.J:
+			case Processor.Decoded.JAL:
+				pushInt(((pc + 4) & 0xF0000000) | (d.target << 2));
+				storeLocal(localTarget);
+				finishLoad();
+				if (d.kind == Processor.Decoded.JAL)
+					storeRegConstant(Processor.regRA, pc + 8);
+				return;
+			case Processor.Decoded.JR:
+			case Processor.Decoded.JALR:
+				loadReg(d.rs);
+				storeLocal(localTarget);
+				finishLoad();
+				if (d.kind == Processor.Decoded.JALR && d.rd != 0)
+					storeRegConstant(d.rd, pc + 8);
+				return;
+
+			default:
+				Lib.assertNotReached();
+			}
+
+			// ALU operations leave their result on the stack
+			storeLocal(localResult);
+			finishLoad();
+
+			if (d.dstReg != 0) {
+				beginStoreReg(d.dstReg);
+				loadLocal(localResult);
+				op(iastore);
+			}
+		}
+
+		private void binary(int reg1, int reg2, int opcode) {
+			loadReg(reg1);
+			loadReg(reg2);
+			op(opcode);
+		}
+
+		private void binaryImm(int reg, int imm, int opcode) {
+			loadReg(reg);
+			pushInt(imm);
+			op(opcode);
+		}
+
+		/** Replace the two ints on the stack with 1 if a < b, else 0. */
+		private void compare() {
+			int skip = branchForward(if_icmpge);
+			pushInt(1);
+			int done = branchForward(goto_);
+			patch(skip);
+			pushInt(0);
+			patch(done);
+		}
+
+		private void multiply(int rs, int rt, boolean unsigned) {
+			loadReg(rs);
+			op(i2l);
+			if (unsigned)
+				andLowWord();
+			loadReg(rt);
+			op(i2l);
+			if (unsigned)
+				andLowWord();
+			op(lmul);
+			code.write(lstore);
+			code.write(localProduct);
+
+			beginStoreReg(Processor.regLo);
+			code.write(lload);
+			code.write(localProduct);
+			op(l2i);
+			op(iastore);
+
+			beginStoreReg(Processor.regHi);
+			code.write(lload);
+			code.write(localProduct);
+			pushInt(32);
+			op(lshr);
+			op(l2i);
+			op(iastore);
+		}
+
+		private void andLowWord() {
+			code.write(ldc2_w);
+			writeShort(cw.longConstant(0xFFFFFFFFL));
+			op(land);
+		}
+
+		private void load(int i, Processor.Decoded d) {
+			translateAddress(i, d, false);
+
+			code.write(aload_2);
+			loadLocal(localAddress);
+			pushInt(d.size);
+			invoke(invokestatic, bytesToInt);
+			storeLocal(localLoaded);
+
+			finishLoad();
+
+			if (d.rt != 0) {
+				loadLocal(localLoaded);
+				storeLocal(localPending);
+				pendingTarget = d.rt;
+			}
+		}
+
+		private void store(int i, Processor.Decoded d) {
+			translateAddress(i, d, true);
+
+			code.write(aload_3);
+			loadLocal(localAddress);
+			pushInt(d.size);
+			loadReg(d.rt);
+			invoke(invokevirtual, hostStore);
+			storeLocal(localResult);
+
+			finishLoad();
+
+			// stop if the store overwrote code
+			loadLocal(localResult);
+			int skip = branchForward(ifeq);
+			exit(i + 1);
+			patch(skip);
+		}
+
+		/**
+		 * Leave the physical address for a load or store in
+		 * <tt>localAddress</tt>, or stop before instruction <i>i</i> if the
+		 * access causes an exception.
+		 */
+		private void translateAddress(int i, Processor.Decoded d,
+				boolean writing) {
+			code.write(aload_3);
+			binaryImm(d.rs, d.imm, iadd);
+			pushInt(d.size);
+			pushInt(writing ? 1 : 0);
+			invoke(invokevirtual, hostTranslate);
+			op(dup);
+			storeLocal(localAddress);
+
+			int skip = branchForward(ifge);
+			exit(i);
+			patch(skip);
+		}
+
+		/**
+		 * Compute the target of a conditional branch into
+		 * <tt>localTarget</tt>. The stack is compared with <i>notTaken</i>,
+		 * which branches if the branch is not taken.
+		 */
+		private void conditional(Processor.Decoded d, int notTaken, int pc) {
+			pushInt(pc + 8);
+			storeLocal(localTarget);
+
+			loadReg(d.rs);
+			if (notTaken >= if_icmpeq)
+				loadReg(d.rt);
+			int skip = branchForward(notTaken);
+			pushInt(pc + 4 + (d.imm << 2));
+			storeLocal(localTarget);
+			patch(skip);
+
+			finishLoad();
+		}
+
+		/**
+		 * Emit the code completing the pending delayed load, if any.
+		 */
+		private void finishLoad() {
+			if (pendingTarget != 0) {
+				beginStoreReg(pendingTarget);
+				loadLocal(localPending);
+				op(iastore);
+				pendingTarget = 0;
+			}
+		}
+
+		/**
+		 * Emit a return after <i>retired</i> instructions, first setting the
+		 * PC registers and restoring any pending delayed load.
+		 */
+		private void exit(int retired) {
+			if (pendingTarget != 0) {
+				code.write(aload_3);
+				pushInt(pendingTarget);
+				loadLocal(localPending);
+				invoke(invokevirtual, hostDelayedLoad);
+			}
+
+			int pc = vaddr + retired * 4;
+
+			if (branchIndex >= 0 && retired == branchIndex + 1) {
+				// stopped in the delay slot
+				storeRegConstant(Processor.regPC, pc);
+				beginStoreReg(Processor.regNextPC);
+				loadLocal(localTarget);
+				op(iastore);
+			}
+			else if (branchIndex >= 0 && retired == branchIndex + 2) {
+				beginStoreReg(Processor.regPC);
+				loadLocal(localTarget);
+				op(iastore);
+				beginStoreReg(Processor.regNextPC);
+				loadLocal(localTarget);
+				pushInt(4);
+				op(iadd);
+				op(iastore);
+			}
+			else {
+				storeRegConstant(Processor.regPC, pc);
+				storeRegConstant(Processor.regNextPC, pc + 4);
+			}
+
+			pushInt(retired);
+			op(ireturn);
+		}
+
+		private void loadReg(int reg) {
+			// register 0 is never written
+			if (reg == 0) {
+				pushInt(0);
+				return;
+			}
+
+			code.write(aload_1);
+			pushInt(reg);
+			op(iaload);
+		}
+
+		private void beginStoreReg(int reg) {
+			code.write(aload_1);
+			pushInt(reg);
+		}
+
+		private void storeRegConstant(int reg, int value) {
+			beginStoreReg(reg);
+			pushInt(value);
+			op(iastore);
+		}
+
+		private void loadLocal(int local) {
+			code.write(iload);
+			code.write(local);
+		}
+
+		private void storeLocal(int local) {
+			code.write(istore);
+			code.write(local);
+		}
+
+		private void pushInt(int value) {
+			if (value >= -1 && value <= 5) {
+				code.write(iconst_0 + value);
+			}
+			else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				code.write(bipush);
+				code.write(value);
+			}
+			else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				code.write(sipush);
+				writeShort(value);
+			}
+			else {
+				code.write(ldc_w);
+				writeShort(cw.intConstant(value));
+			}
+		}
+
+		private void invoke(int opcode, int method) {
+			code.write(opcode);
+			writeShort(method);
+		}
+
+		private void op(int opcode) {
+			code.write(opcode);
+		}
+
+		private int branchForward(int opcode) {
+			int at = code.size();
+			code.write(opcode);
+			writeShort(0);
+			return at;
+		}
+
+		private void patch(int at) {
+			code.patchShort(at + 1, code.size() - at);
+		}
+
+		private void writeShort(int value) {
+			code.write(value >> 8);
+			code.write(value);
+		}
+
+		private ClassWriter cw;
+
+		private Processor.Decoded[] insts;
+
+		private int length, vaddr;
+
+		private int hostTranslate, hostStore, hostDelayedLoad, bytesToInt;
+
+		private CodeBuffer code = new CodeBuffer();
+
+		/** The register the pending delayed load targets, or 0. */
+		private int pendingTarget = 0;
+
+		/** The index of the branch in the block, or -1. */
+		private int branchIndex = -1;
+
+		private static final int localResult = 4, localAddress = 5,
+				localLoaded = 6, localPending = 7, localTarget = 8,
+				localProduct = 9;
+	}
+
+	private static class CodeBuffer extends ByteArrayOutputStream {
+		void patchShort(int at, int value) {
+			buf[at] = (byte) (value >> 8);
+			buf[at + 1] = (byte) value;
+		}
+	}
+
+	/**
+	 * Builds the constant pool and the class file around generated code.
+	 */
+	private static class ClassWriter {
+		int classRef(String name) {
+			return constant("C" + name, 7, utf8(name), -1);
+		}
+
+		int methodRef(String owner, String name, String type) {
+			int nameAndType = constant("N" + name + " " + type, 12, utf8(name),
+					utf8(type));
+			return constant("M" + owner + "." + name + type, 10,
+					classRef(owner), nameAndType);
+		}
+
+		int intConstant(int value) {
+			String key = "I" + value;
+			Integer index = constants.get(key);
+			if (index != null)
+				return index.intValue();
+
+			writeConstant(3, value);
+			constants.put(key, numConstants);
+			return numConstants++;
+		}
+
+		int longConstant(long value) {
+			String key = "J" + value;
+			Integer index = constants.get(key);
+			if (index != null)
+				return index.intValue();
+
+			writeConstant(5, (int) (value >> 32));
+			writeInt(pool, (int) value);
+			constants.put(key, numConstants);
+
+			// longs take two constant pool entries
+			int result = numConstants;
+			numConstants += 2;
+			return result;
+		}
+
+		int utf8(String value) {
+			String key = "U" + value;
+			Integer index = constants.get(key);
+			if (index != null)
+				return index.intValue();
+
+			pool.write(1);
+			writeShort(pool, value.length());
+			for (int i = 0; i < value.length(); i++)
+				pool.write(value.charAt(i));
+
+			constants.put(key, numConstants);
+			return numConstants++;
+		}
+
+		byte[] toByteArray(int thisClass, int superClass, int codeInterface,
+				byte[] init, byte[] run) {
+			int initName = utf8("<init>"), initType = utf8("()V");
+			int runName = utf8("run");
+			int runType = utf8("([I[BLnachos/machine/Translator$Host;)I");
+			int codeName = utf8("Code");
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			writeInt(out, 0xCAFEBABE);
+			// version 49, so the old verifier does not need stack maps
+			writeShort(out, 0);
+			writeShort(out, 49);
+
+			writeShort(out, numConstants);
+			byte[] poolBytes = pool.toByteArray();
+			out.write(poolBytes, 0, poolBytes.length);
+
+			writeShort(out, accPublic | accFinal | accSuper);
+			writeShort(out, thisClass);
+			writeShort(out, superClass);
+			writeShort(out, 1);
+			writeShort(out, codeInterface);
+			writeShort(out, 0);
+
+			writeShort(out, 2);
+			writeMethod(out, accPublic, initName, initType, codeName, 1, 1,
+					init);
+			writeMethod(out, accPublic, runName, runType, codeName, 8, 11,
+					run);
+
+			writeShort(out, 0);
+
+			return out.toByteArray();
+		}
+
+		private void writeMethod(ByteArrayOutputStream out, int access,
+				int name, int type, int codeName, int maxStack,
+				int maxLocals, byte[] code) {
+			writeShort(out, access);
+			writeShort(out, name);
+			writeShort(out, type);
+			writeShort(out, 1);
+
+			writeShort(out, codeName);
+			writeInt(out, 12 + code.length);
+			writeShort(out, maxStack);
+			writeShort(out, maxLocals);
+			writeInt(out, code.length);
+			out.write(code, 0, code.length);
+			writeShort(out, 0);
+			writeShort(out, 0);
+		}
+
+		private int constant(String key, int tag, int first, int second) {
+			Integer index = constants.get(key);
+			if (index != null)
+				return index.intValue();
+
+			pool.write(tag);
+			writeShort(pool, first);
+			if (second >= 0)
+				writeShort(pool, second);
+
+			constants.put(key, numConstants);
+			return numConstants++;
+		}
+
+		private void writeConstant(int tag, int value) {
+			pool.write(tag);
+			writeInt(pool, value);
+		}
+
+		private static void writeShort(ByteArrayOutputStream out, int value) {
+			out.write(value >> 8);
+			out.write(value);
+		}
+
+		private static void writeInt(ByteArrayOutputStream out, int value) {
+			writeShort(out, value >> 16);
+			writeShort(out, value);
+		}
+
+		private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+
+		private HashMap<String, Integer> constants = new HashMap<String, Integer>();
+
+		private int numConstants = 1;
+	}
+
+	/**
+	 * The class loader for translated code, owned by the machine.
+	 */
+	private static class Loader extends ClassLoader {
+		Loader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] classFile) {
+			return defineClass(name, classFile, 0, classFile.length);
+		}
+	}
+
+	private Privilege privilege;
+
+	private Loader loader;
+
+	private HashMap<Key, Code> codeCache = new HashMap<Key, Code>();
+
+	private int numClasses = 0;
+
+	private static final int accPublic = 0x0001, accFinal = 0x0010,
+			accSuper = 0x0020;
+
+	private static final int iconst_0 = 0x03, bipush = 0x10, sipush = 0x11,
+			ldc_w = 0x13, ldc2_w = 0x14, iload = 0x15, lload = 0x16,
+			aload_0 = 0x2a, aload_1 = 0x2b, aload_2 = 0x2c, aload_3 = 0x2d,
+			iaload = 0x2e, istore = 0x36, lstore = 0x37, iastore = 0x4f,
+			dup = 0x59, iadd = 0x60, isub = 0x64, lmul = 0x69, ishl = 0x78,
+			ishr = 0x7a, lshr = 0x7b, iand = 0x7e, land = 0x7f, ior = 0x80,
+			ixor = 0x82, i2l = 0x85, l2i = 0x88, ifeq = 0x99, iflt = 0x9b,
+			ifge = 0x9c, ifgt = 0x9d, ifle = 0x9e, if_icmpeq = 0x9f,
+			if_icmpne = 0xa0, if_icmpge = 0xa2, goto_ = 0xa7, ireturn = 0xac,
+			return_ = 0xb1, invokevirtual = 0xb6, invokespecial = 0xb7,
+			invokestatic = 0xb8;
+}
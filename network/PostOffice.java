@@ -14,6 +14,12 @@ import nachos.threads.*;
  * from the network and to place them in the appropriate queues. This cannot be
  * done in the receive interrupt handler because each queue (implemented with a
  * <tt>SynchList</tt>) is protected by a lock.
+ * 
+ * <p>
+ * Each queue holds at most <tt>mailboxCapacity</tt> messages. Mail that
+ * arrives for a full queue is dropped, as if the network had lost it, so that
+ * a flood of mail to one port can neither use up memory nor hold up the
+ * postal worker, and with it every other port.
  */
 public class PostOffice {
 	/**
@@ -28,7 +34,8 @@ public class PostOffice {
 
 		queues = new SynchList[MailMessage.portLimit];
 		for (int i = 0; i < queues.length; i++)
-			queues[i] = new SynchList();
+			queues[i] = new SynchList(mailboxCapacity,
+					SynchList.policyDropNewest);
 
 		Runnable receiveHandler = new Runnable() {
 			public void run() {
@@ -94,7 +101,9 @@ public class PostOffice {
 						+ ": " + mail);
 
 			// atomically add message to the mailbox and wake a waiting thread
-			queues[mail.dstPort].add(mail);
+			if (!queues[mail.dstPort].add(mail))
+				Lib.debug(dbgNet, "mailbox full, dropped mail to port "
+						+ mail.dstPort);
 		}
 	}
 
@@ -130,6 +139,11 @@ public class PostOffice {
 		messageSent.V();
 	}
 
+	/**
+	 * The most messages waiting to be received on a port.
+	 */
+	public static final int mailboxCapacity = 64;
+
 	private SynchList[] queues;
 
 	private Semaphore messageReceived; // V'd when a message can be dequeued
@@ -157,6 +157,26 @@ public abstract class Privilege {
 		 * user code.
 		 */
 		public void tick(boolean inKernelMode);
+
+		/**
+		 * Advance the simulated time by several ticks at once. The caller must
+		 * ensure that no interrupt becomes due before the last of them.
+		 * 
+		 * @param inKernelMode <tt>true</tt> if the ticks were spent running
+		 * kernel code, <tt>false</tt> if they were spent running MIPS user
+		 * code.
+		 * @param count the number of ticks.
+		 */
+		public void tick(boolean inKernelMode, int count);
+
+		/**
+		 * Return the number of ticks until the earliest pending interrupt is
+		 * due.
+		 * 
+		 * @return the number of ticks until the next interrupt handler would
+		 * run, or <tt>Long.MAX_VALUE</tt> if no interrupts are pending.
+		 */
+		public long ticksUntilDue();
 	}
 
 	/**
@@ -1,8 +1,7 @@
 package nachos.threads;
 
 import nachos.machine.*;
-import java.util.*;
-import nachos.security.Privilege;
+import java.util.Arrays;
 
 /**
  * Uses the hardware timer to provide preemption, and to allow threads to sleep
@@ -22,9 +21,6 @@ public class Alarm {
 				timerInterrupt();
 			}
 		});
-		lock = new Lock();
-		wakeTime = new LinkedList<Integer>();
-		a = new LinkedList<Semaphore>();
 	}
 
 	/**
@@ -32,32 +28,20 @@ public class Alarm {
 	 * periodically (approximately every 500 clock ticks). Causes the current
 	 * thread to yield, forcing a context switch if there is another thread that
 	 * should be run.
+	 * 
+	 * <p>
+	 * Wakes up every sleeping thread whose wake time has come, taking them off
+	 * the top of the heap, so only the threads that are due are looked at,
+	 * and then runs the timeouts on the timing wheel that are due.
 	 */
 	public void timerInterrupt() {
-		/*String name = "main";
-		System.out.println("its name is: " + KThread.currentThread().getName());
-		//if(name.equals(KThread.currentThread().getName()))
-				System.out.println("its waketime is: " + wakeTime);
-		if(wakeTime < Machine.timer().getTime()){
-			a.V();
-		}
-		else{
+		long time = Machine.timer().getTime();
 
-			KThread.currentThread().yield();
-		}*/
+		while (size > 0 && wakeTimes[0] <= time)
+			removeFirst().ready();
+
+		timingWheel.advance(time);
 
-		int i = 0;
-		Integer curTime = (int)(long)Machine.timer().getTime();
-		while(i < wakeTime.size()){
-			Integer wake = wakeTime.get(i);
-			if(curTime > wake){
-				Semaphore b = a.get(i);
-				b.V();
-				wakeTime.remove(i);
-				a.remove(i);
-			}
-			i++;
-		}
 		KThread.currentThread().yield();
 	}
 
@@ -74,29 +58,149 @@ public class Alarm {
 	 * @see nachos.machine.Timer#getTime()
 	 */
 	public void waitUntil(long x) {
-		// for now, cheat just to get something working (busy waiting is bad)
-
-		if(x <= 0)
-			return ;
-
-		/*wakeTime = Machine.timer().getTime() + x;
-		lock.acquire();
-		a.P();
-		lock.release();*/
-		long waketime = Machine.timer().getTime()+x;
-		Integer cT = (int)(long)waketime;
-
-		wakeTime.add(cT);
-		Semaphore cur = new Semaphore(0);
-		a.add(cur);
-		cur.P();
+		if (x <= 0)
+			return;
+
+		boolean intStatus = Machine.interrupt().disable();
+
+		add(Machine.timer().getTime() + x, KThread.currentThread());
+		KThread.sleep();
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Put the current thread to sleep in the specified queue, which it has
+	 * already been added to with <tt>waitForAccess()</tt>, for at least
+	 * <i>x</i> ticks. If it is still waiting then, it is removed from the
+	 * queue and woken up, in the first timer interrupt handled by the timing
+	 * wheel after that. Must be called with interrupts disabled.
+	 * 
+	 * @param queue the queue the current thread waits in.
+	 * @param x the minimum number of clock ticks to wait. If it is 0 or less,
+	 * the thread is removed from the queue at once, without sleeping.
+	 * @return <tt>true</tt> if the thread was woken through the queue, or
+	 * <tt>false</tt> if the time ran out.
+	 */
+	public boolean waitInQueue(ThreadQueue queue, long x) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		if (x <= 0) {
+			queue.remove(KThread.currentThread());
+			return false;
+		}
+
+		QueueExpiry expiry = new QueueExpiry(queue, KThread.currentThread());
+		TimingWheel.Timeout timeout = timingWheel.schedule(x, expiry);
+
+		KThread.sleep();
+
+		timeout.cancel();
+		return !expiry.expired;
 	}
 
-	private Lock lock;
-	private LinkedList<Integer> wakeTime;
-	private static LinkedList<Semaphore> a;
+	/**
+	 * Takes a thread whose timed wait has run out out of its queue, and wakes
+	 * it, unless it has already been dequeued.
+	 */
+	private static class QueueExpiry implements Runnable {
+		QueueExpiry(ThreadQueue queue, KThread thread) {
+			this.queue = queue;
+			this.thread = thread;
+		}
+
+		public void run() {
+			if (queue.remove(thread)) {
+				expired = true;
+				thread.ready();
+			}
+		}
+
+		private ThreadQueue queue;
+		private KThread thread;
+		private boolean expired = false;
+	}
+
+	/**
+	 * Return the timing wheel this alarm drives, for scheduling cancellable
+	 * timeouts.
+	 * 
+	 * @return the timing wheel of this alarm.
+	 */
+	public TimingWheel timingWheel() {
+		return timingWheel;
+	}
+
+	/**
+	 * Add a sleeping thread to the heap, growing it if it is full.
+	 */
+	private void add(long wakeTime, KThread thread) {
+		if (size == sleepers.length) {
+			wakeTimes = Arrays.copyOf(wakeTimes, size * 2);
+			sleepers = Arrays.copyOf(sleepers, size * 2);
+		}
+
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (wakeTimes[parent] <= wakeTime)
+				break;
+
+			wakeTimes[i] = wakeTimes[parent];
+			sleepers[i] = sleepers[parent];
+			i = parent;
+		}
+
+		wakeTimes[i] = wakeTime;
+		sleepers[i] = thread;
+	}
+
+	/**
+	 * Remove the thread with the earliest wake time from the heap.
+	 */
+	private KThread removeFirst() {
+		KThread first = sleepers[0];
+
+		size--;
+		long wakeTime = wakeTimes[size];
+		KThread thread = sleepers[size];
+		sleepers[size] = null;
+
+		int i = 0;
+		while (2 * i + 1 < size) {
+			int child = 2 * i + 1;
+			if (child + 1 < size && wakeTimes[child + 1] < wakeTimes[child])
+				child++;
+			if (wakeTime <= wakeTimes[child])
+				break;
+
+			wakeTimes[i] = wakeTimes[child];
+			sleepers[i] = sleepers[child];
+			i = child;
+		}
+
+		if (size > 0) {
+			wakeTimes[i] = wakeTime;
+			sleepers[i] = thread;
+		}
+
+		return first;
+	}
+
+	/**
+	 * A binary min-heap of sleeping threads, ordered by the time they are due
+	 * to wake up. The wake times are kept in a primitive array beside it.
+	 */
+	private KThread[] sleepers = new KThread[initialSize];
+
+	private long[] wakeTimes = new long[initialSize];
+
+	/** The number of sleeping threads. */
+	private int size = 0;
 
+	private static final int initialSize = 16;
 
+	private TimingWheel timingWheel = new TimingWheel();
 
 	/*public static void selftTest() {
 	    KThread t1 = new KThread(new Runnable() {
@@ -1,7 +1,6 @@
 package nachos.threads;
 
 import nachos.machine.*;
-import java.util.*;
 
 /**
  * A <i>communicator</i> allows threads to synchronously exchange 32-bit
@@ -14,16 +13,7 @@ public class Communicator {
 	/**
 	 * Allocate a new communicator.
 	 */
-
 	public Communicator() {
-        lock = new Lock();
-        listen_lock = new Condition(lock);
-        speak_lock = new Condition(lock);
-        listenning = 0;
-        speaking = 0;
-        text = new LinkedList<Integer>();
-        isEmpty = new Condition2(lock);
-        textbuffer = 0;
 	}
 
 	/**
@@ -37,26 +27,7 @@ public class Communicator {
 	 * @param word the integer to transfer.
 	 */
 	public void speak(int word) {
-        text.add(word);
-        System.out.println("text added is: " + text.peekLast());
-        lock.acquire();
-        
-        speaking++;
-
-        listen_lock.wake();
-
-        while(listenning < 1){
-            speak_lock.sleep();
-        }
-
-        listenning--;
-//System.out.println("lock is here: " + textbuffer);
-        if(textbuffer > 0){
-            isEmpty.sleep();
-        }
-        System.out.println("speak returns at: " + Machine.timer().getTime());
-
-        lock.release();
+		channel.send(word);
 	}
 
 	/**
@@ -66,34 +37,15 @@ public class Communicator {
 	 * @return the integer transferred.
 	 */
 	public int listen() {
-        
-        lock.acquire();
-        listenning++;
-        textbuffer++;
-        speak_lock.wake();
-        int returned = 0;
-        while(speaking < 1)
-            listen_lock.sleep(); 
-
-        speaking--;
-
-        isEmpty.wake();
-
-        returned = text.removeLast();
-        System.out.println("text returned is: " + returned);
-        lock.release();
-        textbuffer--;
-        return returned;
+		return channel.receive();
 	}
 
-    private Lock lock;
-    private Condition speak_lock;
-    private Condition listen_lock;
-    private int listenning;
-    private int speaking;
-    private LinkedList<Integer> text;
-    private int textbuffer;
-    private Condition2 isEmpty;
+	/**
+	 * The words are passed through a rendezvous channel. Use an
+	 * <tt>IntChannel</tt> with a buffer directly to pass many words.
+	 */
+	private IntChannel channel = new IntChannel(0);
+
     public static int i =0;
     
 
@@ -0,0 +1,632 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+
+/**
+ * A scheduler that shares the CPU among threads in proportion to their
+ * weights, in the manner of the Linux completely fair scheduler.
+ * 
+ * <p>
+ * Each thread has a virtual runtime, which grows while the thread runs, by
+ * the ticks it ran scaled down by its weight. The time a thread runs is
+ * measured from <tt>KThread.restoreState()</tt> to <tt>saveState()</tt>. Every
+ * queue dequeues the thread with the lowest virtual runtime, so the threads
+ * that have had less than their share of the CPU run first. A thread is
+ * charged as soon as it gives up the CPU, before it is added to a queue, so
+ * its virtual runtime does not change while it waits.
+ * 
+ * <p>
+ * Each queue keeps the highest virtual runtime it has dequeued as its
+ * <tt>minVruntime</tt>. A new thread starts at the <tt>minVruntime</tt> of
+ * the first queue it waits in, instead of at zero, so that threads forked
+ * later cannot starve the ones already running. A thread that has been
+ * blocked is moved up to at most one quantum behind it, so that it cannot
+ * bank the time it was away.
+ * 
+ * <p>
+ * The weight of a thread comes from its priority, from
+ * <tt>priorityMinimum</tt> to <tt>priorityMaximum</tt>, each step up giving
+ * about 25% more weight. Priority is not transferred.
+ */
+public class CompletelyFairScheduler extends Scheduler {
+	/**
+	 * Allocate a new completely fair scheduler.
+	 */
+	public CompletelyFairScheduler() {
+	}
+
+	/**
+	 * Allocate a new virtual runtime queue.
+	 * 
+	 * @param transferPriority ignored. Priority is not transferred.
+	 * @return a new virtual runtime queue.
+	 */
+	public ThreadQueue newThreadQueue(boolean transferPriority) {
+		return new FairQueue();
+	}
+
+	public int getPriority(KThread thread) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		return getThreadState(thread).priority;
+	}
+
+	public int getEffectivePriority(KThread thread) {
+		return getPriority(thread);
+	}
+
+	public void setPriority(KThread thread, int priority) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		Lib.assertTrue(priority >= priorityMinimum
+				&& priority <= priorityMaximum);
+
+		ThreadState state = getThreadState(thread);
+		state.charge();
+
+		boolean runnable = state.runnable;
+		state.setRunnable(false);
+		state.priority = priority;
+		state.setRunnable(runnable);
+	}
+
+	public boolean increasePriority() {
+		boolean intStatus = Machine.interrupt().disable();
+		boolean ret = true;
+
+		KThread thread = KThread.currentThread();
+
+		int priority = getPriority(thread);
+		if (priority == priorityMaximum)
+			ret = false;
+		else
+			setPriority(thread, priority + 1);
+
+		Machine.interrupt().restore(intStatus);
+		return ret;
+	}
+
+	public boolean decreasePriority() {
+		boolean intStatus = Machine.interrupt().disable();
+		boolean ret = true;
+
+		KThread thread = KThread.currentThread();
+
+		int priority = getPriority(thread);
+		if (priority == priorityMinimum)
+			ret = false;
+		else
+			setPriority(thread, priority - 1);
+
+		Machine.interrupt().restore(intStatus);
+		return ret;
+	}
+
+	public void threadReady(KThread thread) {
+		ThreadState state = getThreadState(thread);
+		state.ready = true;
+		state.setRunnable(true);
+	}
+
+	public void threadRunning(KThread thread) {
+		ThreadState state = getThreadState(thread);
+		state.ready = false;
+		state.runStart = Machine.timer().getTime();
+	}
+
+	public void threadStopped(KThread thread) {
+		ThreadState state = getThreadState(thread);
+		state.charge();
+		state.runStart = -1;
+
+		if (!state.ready)
+			state.setRunnable(false);
+	}
+
+	/**
+	 * Fold the statistics of a finished thread into the totals, and forget
+	 * its state.
+	 */
+	public void threadFinished(KThread thread) {
+		ThreadState state = getThreadState(thread);
+		state.charge();
+		state.runStart = -1;
+		state.setRunnable(false);
+
+		if (states.remove(state) && (state.runtime > 0 || state.fairShare > 0)) {
+			finishedThreads++;
+			finishedRuntime += state.runtime;
+			finishedFairShare += state.fairShare;
+		}
+	}
+
+	/**
+	 * Print, for each thread that has been runnable, the share of the CPU it
+	 * got and its fair share. A thread is runnable while it is running or in
+	 * the ready queue. Its fair share is its weight over the total weight of
+	 * the runnable threads, added up over the time it was runnable, so a
+	 * thread that was blocked, like a <tt>main</tt> thread that joins the
+	 * others, only competes for the time it did not. Finished threads are
+	 * reported together.
+	 */
+	public void printStats() {
+		ArrayList<ThreadState> ran = new ArrayList<ThreadState>();
+		long totalRuntime = finishedRuntime;
+		double totalFairShare = finishedFairShare;
+
+		for (ThreadState state : states) {
+			state.charge();
+			if (state.runtime > 0 || state.fairShare() > 0) {
+				ran.add(state);
+				totalRuntime += state.runtime;
+				totalFairShare += state.fairShare();
+			}
+		}
+
+		if (totalRuntime == 0)
+			return;
+
+		Collections.sort(ran, new Comparator<ThreadState>() {
+			public int compare(ThreadState a, ThreadState b) {
+				if (a.runtime != b.runtime)
+					return Long.compare(b.runtime, a.runtime);
+				return a.thread.compareTo(b.thread);
+			}
+		});
+
+		System.out.println("Fair shares: " + (ran.size() + finishedThreads)
+				+ " threads, " + totalRuntime + " ticks");
+
+		for (int i = 0; i < ran.size() && i < reportLimit; i++) {
+			ThreadState state = ran.get(i);
+
+			System.out.println("  " + state.thread + ": weight "
+					+ weights[state.priority] + ", ran " + state.runtime
+					+ " ticks, " + percent(state.runtime, totalRuntime)
+					+ " of CPU for a fair share of "
+					+ percent(state.fairShare(), totalFairShare));
+		}
+
+		if (finishedThreads > 0)
+			System.out.println("  " + finishedThreads + " finished threads: ran "
+					+ finishedRuntime + " ticks, "
+					+ percent(finishedRuntime, totalRuntime)
+					+ " of CPU for a fair share of "
+					+ percent(finishedFairShare, totalFairShare));
+	}
+
+	private static String percent(double part, double whole) {
+		long tenths = Math.round(part * 1000 / whole);
+		return (tenths / 10) + "." + (tenths % 10) + "%";
+	}
+
+	/**
+	 * Advance <tt>fairTime</tt> to the current time.
+	 */
+	private void advanceFairTime() {
+		long time = Machine.timer().getTime();
+		if (runnableWeight > 0)
+			fairTime += (double) (time - fairTimeUpdated) / runnableWeight;
+		fairTimeUpdated = time;
+	}
+
+	/**
+	 * The default priority of a new thread.
+	 */
+	public static final int priorityDefault = 1;
+
+	/**
+	 * The minimum priority that a thread can have.
+	 */
+	public static final int priorityMinimum = 0;
+
+	/**
+	 * The maximum priority that a thread can have.
+	 */
+	public static final int priorityMaximum = 7;
+
+	/**
+	 * The weight of each priority. These are the Linux weights for nice
+	 * values 1 down to -6, so the default priority weighs 1024.
+	 */
+	private static final int[] weights = { 820, 1024, 1277, 1586, 1991, 2501,
+			3121, 3906 };
+
+	/**
+	 * The virtual runtime a thread at the default priority is charged per
+	 * tick. Threads at other priorities are charged this scaled by the
+	 * default weight over theirs.
+	 */
+	public static final long vruntimePerTick = 1024;
+
+	/**
+	 * How far behind <tt>minVruntime</tt> a thread that has been blocked may
+	 * be when it wakes up, in virtual runtime.
+	 */
+	public static final long sleeperCredit = Stats.TimerTicks
+			* vruntimePerTick;
+
+	/** The most threads <tt>printStats()</tt> lists. */
+	private static final int reportLimit = 20;
+
+	/**
+	 * Return the scheduling state of the specified thread.
+	 * 
+	 * @param thread the thread whose scheduling state to return.
+	 * @return the scheduling state of the specified thread.
+	 */
+	protected ThreadState getThreadState(KThread thread) {
+		if (thread.schedulingState == null)
+			thread.schedulingState = new ThreadState(thread);
+
+		return (ThreadState) thread.schedulingState;
+	}
+
+	/**
+	 * A <tt>ThreadQueue</tt> that dequeues the thread with the lowest virtual
+	 * runtime, breaking ties by thread ID.
+	 */
+	protected class FairQueue extends ThreadQueue {
+		FairQueue() {
+		}
+
+		public void waitForAccess(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			ThreadState state = getThreadState(thread);
+
+			if (thread == KThread.currentThread())
+				state.charge();
+			else if (!state.queued)
+				state.vruntime = Math.max(state.vruntime, minVruntime);
+			else
+				state.vruntime = Math.max(state.vruntime, minVruntime
+						- sleeperCredit);
+
+			state.queued = true;
+			waitQueue.add(state, state.vruntime);
+		}
+
+		public KThread nextThread() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			ThreadState first = waitQueue.removeFirst();
+			if (first == null)
+				return null;
+
+			minVruntime = Math.max(minVruntime, first.key);
+
+			return first.thread;
+		}
+
+		/**
+		 * The specified thread has received exclusive access, without using
+		 * <tt>waitForAccess()</tt> or <tt>nextThread()</tt>. Nothing to do,
+		 * since priority is not transferred.
+		 */
+		public void acquire(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+		}
+
+		public boolean remove(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			return waitQueue.remove(getThreadState(thread));
+		}
+
+		public void print() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			waitQueue.print();
+		}
+
+		/** The waiting threads. */
+		protected Heap waitQueue = new Heap();
+
+		/** The highest virtual runtime this queue has dequeued. */
+		private long minVruntime = 0;
+	}
+
+	/**
+	 * A pairing heap of thread states, ordered by the key each was added
+	 * with and then by thread ID. The heap is linked through the states
+	 * themselves, so adding a thread allocates nothing and takes constant
+	 * time, and removing the first, or any other, takes amortized logarithmic
+	 * time. A thread can be in only one heap at a time.
+	 */
+	protected class Heap {
+		/**
+		 * Add a thread to this heap.
+		 * 
+		 * @param state the state of the thread to add.
+		 * @param key the key to order the thread by.
+		 */
+		void add(ThreadState state, long key) {
+			Lib.assertTrue(state.heap == null);
+
+			state.key = key;
+			state.heap = this;
+			root = (root == null) ? state : link(root, state);
+		}
+
+		/**
+		 * Remove the first thread from this heap.
+		 * 
+		 * @return the state of the first thread, or <tt>null</tt> if the heap
+		 * is empty.
+		 */
+		ThreadState removeFirst() {
+			ThreadState first = root;
+			if (first == null)
+				return null;
+
+			root = mergePairs(first.child);
+			first.child = null;
+			first.heap = null;
+
+			return first;
+		}
+
+		/**
+		 * Remove a thread from this heap, wherever it is. Its subtree is cut
+		 * out, and its children are merged and linked back to the root.
+		 * 
+		 * @param state the state of the thread to remove.
+		 * @return <tt>true</tt> if the thread was in this heap.
+		 */
+		boolean remove(ThreadState state) {
+			if (state.heap != this)
+				return false;
+
+			if (state == root) {
+				removeFirst();
+				return true;
+			}
+
+			if (state.previous.child == state)
+				state.previous.child = state.sibling;
+			else
+				state.previous.sibling = state.sibling;
+			if (state.sibling != null)
+				state.sibling.previous = state.previous;
+			state.previous = state.sibling = null;
+
+			ThreadState children = mergePairs(state.child);
+			state.child = null;
+			state.heap = null;
+
+			if (children != null)
+				root = link(root, children);
+
+			return true;
+		}
+
+		boolean isEmpty() {
+			return root == null;
+		}
+
+		void print() {
+			print(root);
+		}
+
+		private void print(ThreadState state) {
+			for (; state != null; state = state.sibling) {
+				System.out.print(state.thread + " ");
+				print(state.child);
+			}
+		}
+
+		/**
+		 * Make the later of two heap roots the first child of the other.
+		 */
+		private ThreadState link(ThreadState a, ThreadState b) {
+			if (before(b, a)) {
+				ThreadState t = a;
+				a = b;
+				b = t;
+			}
+
+			b.sibling = a.child;
+			if (a.child != null)
+				a.child.previous = b;
+			b.previous = a;
+			a.child = b;
+			return a;
+		}
+
+		/**
+		 * Merge a list of sibling heaps into one, in the usual two passes:
+		 * link them in pairs from left to right, then link the pairs into one
+		 * from right to left. The pairs are kept on a stack linked through
+		 * <tt>sibling</tt>, which the second pass pops.
+		 */
+		private ThreadState mergePairs(ThreadState first) {
+			ThreadState stack = null;
+
+			while (first != null) {
+				ThreadState a = first, b = first.sibling;
+				if (b == null) {
+					first = null;
+				}
+				else {
+					first = b.sibling;
+					b.sibling = null;
+					a.sibling = null;
+					a = link(a, b);
+				}
+
+				a.sibling = stack;
+				stack = a;
+			}
+
+			ThreadState merged = null;
+			while (stack != null) {
+				ThreadState next = stack.sibling;
+				stack.sibling = null;
+				merged = (merged == null) ? stack : link(merged, stack);
+				stack = next;
+			}
+
+			if (merged != null)
+				merged.previous = null;
+
+			return merged;
+		}
+
+		private boolean before(ThreadState a, ThreadState b) {
+			if (a.key != b.key)
+				return a.key < b.key;
+
+			return a.thread.compareTo(b.thread) < 0;
+		}
+
+		/** The first thread, or <tt>null</tt>. */
+		private ThreadState root = null;
+	}
+
+	/**
+	 * The scheduling state of a thread in a completely fair scheduler.
+	 * 
+	 * @see nachos.threads.KThread#schedulingState
+	 */
+	protected class ThreadState {
+		/**
+		 * Allocate a new <tt>ThreadState</tt> object and associate it with the
+		 * specified thread.
+		 * 
+		 * @param thread the thread this state belongs to.
+		 */
+		public ThreadState(KThread thread) {
+			this.thread = thread;
+			states.add(this);
+		}
+
+		/**
+		 * If the associated thread is running, charge it for the time it has
+		 * run since it was last charged. Only the time it ran while runnable
+		 * counts as its runtime, which leaves out the idle thread and the
+		 * first run of <tt>main</tt>.
+		 */
+		void charge() {
+			if (runStart < 0)
+				return;
+
+			long time = Machine.timer().getTime();
+			long ticks = time - runStart;
+			runStart = time;
+
+			if (runnable)
+				runtime += ticks;
+			vruntime += ticks * vruntimePerTick * weights[priorityDefault]
+					/ weights[priority];
+		}
+
+		/**
+		 * Start or stop counting the associated thread among the runnable
+		 * threads.
+		 */
+		void setRunnable(boolean runnable) {
+			if (this.runnable == runnable)
+				return;
+
+			advanceFairTime();
+			int weight = weights[priority];
+
+			if (runnable) {
+				fairStart = fairTime;
+				runnableWeight += weight;
+			}
+			else {
+				fairShare += weight * (fairTime - fairStart);
+				runnableWeight -= weight;
+			}
+
+			this.runnable = runnable;
+		}
+
+		/**
+		 * Return the ticks of CPU the associated thread was due, so far.
+		 */
+		double fairShare() {
+			if (!runnable)
+				return fairShare;
+
+			advanceFairTime();
+			return fairShare + weights[priority] * (fairTime - fairStart);
+		}
+
+		/** The thread with which this object is associated. */
+		protected KThread thread;
+
+		/** The priority of the associated thread. */
+		protected int priority = priorityDefault;
+
+		/** The ticks the thread has run. */
+		long runtime = 0;
+
+		/** The virtual runtime of the thread. */
+		long vruntime = 0;
+
+		/** When the thread was last charged, or -1 if it is not running. */
+		long runStart = -1;
+
+		/** Whether the thread has ever waited in a queue. */
+		boolean queued = false;
+
+		/** Whether the thread is in the ready queue. */
+		boolean ready = false;
+
+		/** Whether the thread is running or in the ready queue. */
+		boolean runnable = false;
+
+		/** The ticks of CPU the thread was due while it was runnable before. */
+		double fairShare = 0;
+
+		/** <tt>fairTime</tt> when the thread last became runnable. */
+		double fairStart;
+
+		/** The key the thread is ordered by in its heap. */
+		long key;
+
+		/** The first child of this thread in the pairing heap. */
+		ThreadState child;
+
+		/** The next sibling of this thread in the pairing heap. */
+		ThreadState sibling;
+
+		/**
+		 * The previous sibling of this thread in the pairing heap, or its
+		 * parent if it is the first child.
+		 */
+		ThreadState previous;
+
+		/** The heap this thread is in, or <tt>null</tt>. */
+		Heap heap;
+	}
+
+	/** The state of every thread that has not finished. */
+	private HashSet<ThreadState> states = new HashSet<ThreadState>();
+
+	/** The total weight of the runnable threads. */
+	private long runnableWeight = 0;
+
+	/**
+	 * The ticks of CPU due to a runnable thread of weight 1 since the start,
+	 * as of <tt>fairTimeUpdated</tt>.
+	 */
+	private double fairTime = 0;
+
+	private long fairTimeUpdated = 0;
+
+	/** The totals of the finished threads. */
+	private int finishedThreads = 0;
+
+	private long finishedRuntime = 0;
+
+	private double finishedFairShare = 0;
+}
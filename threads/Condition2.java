@@ -14,12 +14,10 @@ import java.util.LinkedList;
  * @see nachos.threads.Condition
  */
 public class Condition2 {
-
 	private Lock conditionLock;
-	private static boolean cond;
-	private static int num;
 	private ThreadQueue waitQueue = ThreadedKernel.scheduler
 			.newThreadQueue(false);
+
 	/**
 	 * Allocate a new condition variable.
 	 * 
@@ -29,8 +27,6 @@ public class Condition2 {
 	 */
 	public Condition2(Lock conditionLock) {
 		this.conditionLock = conditionLock;
-		cond = Machine.interrupt().enabled();
-		num = 0;
 	}
 
 	/**
@@ -42,16 +38,42 @@ public class Condition2 {
 	public void sleep() {
 		Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
+		boolean intStatus = Machine.interrupt().disable();
+
 		conditionLock.release();
-		num++;
-		cond = Machine.interrupt().disable();
-		//Machine.interrupt().disable();
 		waitQueue.waitForAccess(KThread.currentThread());
-		KThread.currentThread().sleep();
-		Machine.interrupt().restore(cond);
+		KThread.sleep();
+
+		conditionLock.acquire();
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Like <tt>sleep()</tt>, but give up waiting to be woken after at least
+	 * the specified number of ticks, on the first timer interrupt after that.
+	 * The thread reacquires the lock before returning either way.
+	 * 
+	 * @param ticks the minimum number of clock ticks to wait.
+	 * @return <tt>true</tt> if the thread was woken by <tt>wake()</tt> or
+	 * <tt>wakeAll()</tt>, or <tt>false</tt> if the time ran out.
+	 */
+	public boolean sleep(long ticks) {
+		Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
+		if (ticks <= 0)
+			return false;
+
+		boolean intStatus = Machine.interrupt().disable();
+
+		conditionLock.release();
+		waitQueue.waitForAccess(KThread.currentThread());
+		boolean woken = ThreadedKernel.alarm.waitInQueue(waitQueue, ticks);
 
 		conditionLock.acquire();
+
+		Machine.interrupt().restore(intStatus);
+		return woken;
 	}
 
 	/**
@@ -60,15 +82,14 @@ public class Condition2 {
 	 */
 	public void wake() {
 		Lib.assertTrue(conditionLock.isHeldByCurrentThread());
-		//Machine.interrupt().disable();
-		cond = Machine.interrupt().disable();
-		//Machine.interrupt().disable();
+
+		boolean intStatus = Machine.interrupt().disable();
+
 		KThread thread = waitQueue.nextThread();
-		if (thread != null) {
+		if (thread != null)
 			thread.ready();
-		}
-		num--;
-		Machine.interrupt().restore(cond);
+
+		Machine.interrupt().restore(intStatus);
 	}
 
 	/**
@@ -77,11 +98,15 @@ public class Condition2 {
 	 */
 	public void wakeAll() {
 		Lib.assertTrue(conditionLock.isHeldByCurrentThread());
-		while(num > 0)
-			wake();
-	}
 
+		boolean intStatus = Machine.interrupt().disable();
 
+		KThread thread;
+		while ((thread = waitQueue.nextThread()) != null)
+			thread.ready();
+
+		Machine.interrupt().restore(intStatus);
+	}
 
 	public static void selfTest(){
 	    final Lock lock = new Lock();
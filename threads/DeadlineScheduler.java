@@ -0,0 +1,234 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A completely fair scheduler with an earliest-deadline-first real-time class
+ * above it.
+ * 
+ * <p>
+ * A thread joins the real-time class through <tt>setDeadline()</tt>, giving
+ * its period, its relative deadline and the most ticks it runs per period.
+ * Every queue dequeues its real-time threads first, earliest absolute
+ * deadline first, and only then its other threads, in the order of the
+ * completely fair scheduler. When a real-time thread has finished its work
+ * for a period it calls <tt>waitForNextPeriod()</tt>, which counts the job in
+ * the machine statistics, as missed if it finished after its deadline, and
+ * sleeps in <tt>Alarm.waitUntil()</tt> until the next release. Releases are
+ * therefore only as precise as the alarm, which wakes threads on timer
+ * interrupts.
+ * 
+ * <p>
+ * A thread is only admitted if the total density of the real-time threads,
+ * the cost of each over its deadline, stays at most 1. Deadlines are no
+ * longer than periods, so this bounds their utilization too. Earliest deadline
+ * first then meets every deadline, as long as each thread keeps to its cost
+ * and is not kept waiting in a lock by a thread outside the class.
+ */
+public class DeadlineScheduler extends CompletelyFairScheduler {
+	/**
+	 * Allocate a new deadline scheduler.
+	 */
+	public DeadlineScheduler() {
+	}
+
+	/**
+	 * Allocate a new deadline thread queue.
+	 * 
+	 * @param transferPriority ignored. Priority is not transferred.
+	 * @return a new deadline thread queue.
+	 */
+	public ThreadQueue newThreadQueue(boolean transferPriority) {
+		return new DeadlineQueue();
+	}
+
+	public boolean setDeadline(KThread thread, long period, long deadline,
+			long cost) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		DeadlineThreadState state = getDeadlineState(thread);
+
+		if (period == 0) {
+			state.leave();
+			return true;
+		}
+
+		Lib.assertTrue(period > 0 && deadline > 0 && deadline <= period
+				&& cost > 0);
+
+		if (cost > deadline)
+			return false;
+
+		long density = (long) Math.ceil((double) cost / deadline * densityUnit);
+		if (totalDensity - state.density + density > densityUnit)
+			return false;
+
+		totalDensity += density - state.density;
+		state.density = density;
+		state.period = period;
+		state.relativeDeadline = deadline;
+		state.cost = cost;
+
+		state.release = Machine.timer().getTime();
+		state.deadline = state.release + deadline;
+
+		return true;
+	}
+
+	public void waitForNextPeriod() {
+		boolean intStatus = Machine.interrupt().disable();
+
+		DeadlineThreadState state = getDeadlineState(KThread.currentThread());
+		if (state.period == 0) {
+			Machine.interrupt().restore(intStatus);
+			return;
+		}
+
+		long time = Machine.timer().getTime();
+		Machine.timer().countDeadline(time > state.deadline);
+
+		state.release += state.period;
+		state.deadline = state.release + state.relativeDeadline;
+		long wait = state.release - time;
+
+		Machine.interrupt().restore(intStatus);
+
+		if (wait > 0)
+			ThreadedKernel.alarm.waitUntil(wait);
+	}
+
+	public void threadFinished(KThread thread) {
+		super.threadFinished(thread);
+		getDeadlineState(thread).leave();
+	}
+
+	/**
+	 * The density of a real-time thread that needs all of its deadline. The
+	 * densities of all admitted threads, rounded up in these units, add up to
+	 * at most this.
+	 */
+	private static final long densityUnit = 1L << 30;
+
+	/**
+	 * Return the scheduling state of the specified thread.
+	 * 
+	 * @param thread the thread whose scheduling state to return.
+	 * @return the scheduling state of the specified thread.
+	 */
+	protected ThreadState getThreadState(KThread thread) {
+		if (thread.schedulingState == null)
+			thread.schedulingState = new DeadlineThreadState(thread);
+
+		return (ThreadState) thread.schedulingState;
+	}
+
+	private DeadlineThreadState getDeadlineState(KThread thread) {
+		return (DeadlineThreadState) getThreadState(thread);
+	}
+
+	/**
+	 * A <tt>ThreadQueue</tt> that dequeues real-time threads by earliest
+	 * deadline before any other thread.
+	 */
+	protected class DeadlineQueue extends FairQueue {
+		DeadlineQueue() {
+		}
+
+		public void waitForAccess(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			DeadlineThreadState state = getDeadlineState(thread);
+			if (state.period == 0) {
+				super.waitForAccess(thread);
+				return;
+			}
+
+			if (thread == KThread.currentThread())
+				state.charge();
+
+			state.queued = true;
+			realTimeQueue.add(state, state.deadline);
+		}
+
+		public KThread nextThread() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			ThreadState first = realTimeQueue.removeFirst();
+			if (first != null)
+				return first.thread;
+
+			return super.nextThread();
+		}
+
+		public boolean remove(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			return realTimeQueue.remove(getThreadState(thread))
+					|| super.remove(thread);
+		}
+
+		public void print() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			realTimeQueue.print();
+			super.print();
+		}
+
+		/** The waiting real-time threads. */
+		private Heap realTimeQueue = new Heap();
+	}
+
+	/**
+	 * The scheduling state of a thread in a deadline scheduler. A thread is
+	 * real-time if its <tt>period</tt> is not 0.
+	 */
+	protected class DeadlineThreadState extends ThreadState {
+		/**
+		 * Allocate a new <tt>DeadlineThreadState</tt> object and associate it
+		 * with the specified thread.
+		 * 
+		 * @param thread the thread this state belongs to.
+		 */
+		public DeadlineThreadState(KThread thread) {
+			super(thread);
+		}
+
+		/**
+		 * Take the associated thread out of the real-time class, freeing its
+		 * density. It starts again like a new thread, since its virtual
+		 * runtime kept growing while it was real-time.
+		 */
+		void leave() {
+			if (period == 0)
+				return;
+
+			totalDensity -= density;
+			density = 0;
+			period = 0;
+
+			vruntime = 0;
+			queued = false;
+		}
+
+		/** The ticks between releases, or 0 if the thread is not real-time. */
+		long period = 0;
+
+		/** The ticks after each release by which the thread must finish. */
+		long relativeDeadline;
+
+		/** The most ticks the thread runs each period. */
+		long cost;
+
+		/** The density of the thread, in <tt>densityUnit</tt>s. */
+		long density = 0;
+
+		/** The time of the current release. */
+		long release;
+
+		/** The absolute deadline of the current release. */
+		long deadline;
+	}
+
+	/** The sum of the densities of the real-time threads. */
+	private long totalDensity = 0;
+}
@@ -0,0 +1,213 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A wait-for graph of the threads blocked in <tt>Lock.acquire()</tt>,
+ * <tt>KThread.join()</tt> and <tt>Semaphore.P()</tt>, kept when the
+ * <tt>nachos.conf</tt> key <tt>ThreadedKernel.deadlockDetector</tt> is
+ * <tt>true</tt>. Each thread that blocks records what it waits for, and
+ * removes the record when it runs again. Waits with a time limit are not
+ * recorded, since they end by themselves.
+ * 
+ * <p>
+ * A thread waiting for a lock waits for the thread holding it, and a thread
+ * waiting to join waits for the thread it joins. When a thread blocks, the
+ * detector follows these edges from it, and if they lead back to it, the
+ * threads on the way are deadlocked: it prints the cycle and terminates
+ * Nachos. A semaphore has no holder, so a thread waiting for one waits for
+ * nobody in particular and ends the walk.
+ * 
+ * <p>
+ * Threads can also be stuck without a cycle, for example behind a lock held
+ * by a thread that finished. So whenever the idle thread finds nothing to
+ * run, it checks whether every other thread is blocked waiting for a lock or
+ * to join. Only other threads can wake those, so then none ever runs again,
+ * and the detector prints them all and terminates Nachos instead of letting
+ * the idle thread skip from one timer interrupt to the next forever. A thread
+ * waiting for a semaphore may still be woken by an interrupt handler, such as
+ * that of the console, so it makes this check inconclusive.
+ * 
+ * <p>
+ * All methods must be called with interrupts disabled, and only when
+ * <tt>enabled</tt> is <tt>true</tt>.
+ */
+class DeadlockDetector {
+	/**
+	 * Called when a thread is created that counts as running, which is every
+	 * thread except the idle thread.
+	 */
+	static void threadStarted() {
+		liveThreads++;
+	}
+
+	/**
+	 * Called when the current thread finishes.
+	 */
+	static void threadFinished() {
+		liveThreads--;
+	}
+
+	/**
+	 * Called when the current thread is about to sleep until another thread
+	 * wakes it, and terminates Nachos if that deadlocks it.
+	 * 
+	 * @param resource the <tt>Lock</tt> or <tt>Semaphore</tt> the current
+	 * thread waits for, or the <tt>KThread</tt> it waits to join.
+	 */
+	static void blocked(Object resource) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		KThread thread = KThread.currentThread();
+		waits.put(thread, new Wait(resource, blockingSite()));
+		if (!(resource instanceof Semaphore))
+			ownedWaits++;
+
+		/*
+		 * A thread that was woken but has not run yet still has its wait
+		 * recorded. If it was handed a lock, the walk loops on it, so stop
+		 * after as many steps as there are waits.
+		 */
+		KThread next = owner(resource);
+		for (int i = 0; next != null && i < waits.size(); i++) {
+			if (next == thread)
+				deadlock("Deadlock:", thread);
+
+			Wait wait = waits.get(next);
+			next = (wait == null) ? null : owner(wait.resource);
+		}
+	}
+
+	/**
+	 * Called when the current thread runs again after <tt>blocked()</tt>.
+	 */
+	static void woke() {
+		Wait wait = waits.remove(KThread.currentThread());
+		if (!(wait.resource instanceof Semaphore))
+			ownedWaits--;
+	}
+
+	/**
+	 * Called by the idle thread when no other thread is ready to run.
+	 * Terminates Nachos if no thread can ever run again.
+	 */
+	static void idle() {
+		if (liveThreads == 0 || ownedWaits < liveThreads)
+			return;
+
+		deadlock("Deadlock: every thread is blocked.", null);
+	}
+
+	/**
+	 * Print the waits of the threads in the cycle through <tt>first</tt>, or
+	 * of all blocked threads if <tt>first</tt> is <tt>null</tt>, and terminate
+	 * Nachos.
+	 */
+	private static void deadlock(String title, KThread first) {
+		StringBuilder description = new StringBuilder(title);
+
+		if (first == null) {
+			for (Map.Entry<KThread, Wait> entry : waits.entrySet())
+				describe(description, entry.getKey(), entry.getValue());
+		}
+		else {
+			KThread thread = first;
+			do {
+				Wait wait = waits.get(thread);
+				describe(description, thread, wait);
+				thread = owner(wait.resource);
+			} while (thread != first);
+		}
+
+		System.out.println(description);
+		Machine.terminate(new Error("deadlock"));
+	}
+
+	/**
+	 * Append a line describing the wait of a blocked thread.
+	 */
+	private static void describe(StringBuilder description, KThread thread,
+			Wait wait) {
+		description.append("\n  " + thread + ", blocked at " + wait.site);
+
+		if (wait.resource instanceof KThread) {
+			description.append(", waits to join " + wait.resource);
+		}
+		else {
+			description.append(", waits for "
+					+ wait.resource.getClass().getSimpleName() + "@"
+					+ Integer.toHexString(System.identityHashCode(wait.resource)));
+			if (wait.resource instanceof Lock)
+				description.append(" held by "
+						+ ((Lock) wait.resource).getHolder());
+		}
+	}
+
+	/**
+	 * Return the thread that must act before a thread waiting for the
+	 * specified resource can run, or <tt>null</tt> if there is none in
+	 * particular.
+	 */
+	private static KThread owner(Object resource) {
+		if (resource instanceof Lock)
+			return ((Lock) resource).getHolder();
+		else if (resource instanceof KThread)
+			return (KThread) resource;
+		else
+			return null;
+	}
+
+	/**
+	 * Return the first frame of the current stack outside this class and the
+	 * synchronization classes.
+	 */
+	private static String blockingSite() {
+		StackTraceElement[] stack = new Throwable().getStackTrace();
+
+		frames: for (int i = 0; i < stack.length; i++) {
+			for (int j = 0; j < internal.length; j++) {
+				if (stack[i].getClassName().equals(internal[j].getName()))
+					continue frames;
+			}
+
+			return stack[i].toString();
+		}
+
+		return "unknown";
+	}
+
+	/** Whether threads record their waits. */
+	static boolean enabled = false;
+
+	/** The classes whose frames are skipped when naming where threads block. */
+	private static final Class<?>[] internal = { DeadlockDetector.class,
+			KThread.class, Lock.class, Semaphore.class, Condition.class,
+			Condition2.class, SynchList.class, IntChannel.class,
+			Communicator.class };
+
+	/** The number of threads started and not finished, except the idle thread. */
+	private static int liveThreads = 0;
+
+	/** The waits of the blocked threads, in the order they blocked. */
+	private static LinkedHashMap<KThread, Wait> waits =
+			new LinkedHashMap<KThread, Wait>();
+
+	/** The number of waits for a lock or to join. */
+	private static int ownedWaits = 0;
+
+	private static class Wait {
+		Wait(Object resource, String site) {
+			this.resource = resource;
+			this.site = site;
+		}
+
+		/** What the thread waits for. */
+		Object resource;
+
+		/** Where the thread blocked. */
+		String site;
+	}
+}
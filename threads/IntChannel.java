@@ -0,0 +1,345 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.ArrayDeque;
+
+/**
+ * A bounded channel that carries 32-bit words from sending threads to
+ * receiving threads, in the order they were sent.
+ * 
+ * <p>
+ * A channel with capacity 0 is a rendezvous, like a <tt>Communicator</tt>:
+ * <tt>send()</tt> does not return until a receiver has taken the word. A
+ * channel with a larger capacity buffers up to that many words in a ring of
+ * <tt>int</tt>s, and <tt>send()</tt> only waits while the ring is full. Moving
+ * a word allocates nothing.
+ * 
+ * <p>
+ * <tt>sendAll()</tt> and <tt>receiveInto()</tt> move whole arrays, copying as
+ * many words at a time as the ring allows and waking the thread on the other
+ * side once for each such run rather than once for each word. A producer and a
+ * consumer exchanging batches through a buffered channel therefore only
+ * switch when the ring fills up or runs dry.
+ * 
+ * <p>
+ * Senders take turns in the order they arrive, and so do receivers, so the
+ * first receiver to wait gets the first word sent, and the words of a batch
+ * stay together. Only the thread whose turn it is waits for room or for words,
+ * and the threads behind it wait in line, so each step wakes only the one
+ * thread that can act on it: the head of the line when a turn ends, or the
+ * thread whose turn it is when the other side moves words.
+ */
+public class IntChannel {
+	/**
+	 * Allocate a new channel.
+	 * 
+	 * @param capacity the number of words the channel can hold, or 0 for a
+	 * rendezvous.
+	 */
+	public IntChannel(int capacity) {
+		Lib.assertTrue(capacity >= 0);
+
+		rendezvous = (capacity == 0);
+		buffer = new int[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Send a word, waiting while the channel is full. If the channel is a
+	 * rendezvous, also wait until a receiver has taken it.
+	 * 
+	 * @param word the word to send.
+	 */
+	public void send(int word) {
+		lock.acquire();
+
+		long turn = senderTickets++;
+		if (senderTurn != turn)
+			waitInLine(senderLine);
+		Lib.assertTrue(senderTurn == turn);
+
+		waitForRoom();
+
+		buffer[(head + count) % buffer.length] = word;
+		count++;
+		sent++;
+		wakeReceiver();
+
+		senderTurn++;
+		wakeHead(senderLine);
+
+		if (rendezvous)
+			waitUntilReceived(sent);
+
+		lock.release();
+	}
+
+	/**
+	 * Send all the words of an array, in order.
+	 * 
+	 * @param words the words to send.
+	 */
+	public void sendAll(int[] words) {
+		sendAll(words, 0, words.length);
+	}
+
+	/**
+	 * Send <tt>length</tt> words from an array, in order, waiting whenever the
+	 * channel is full. If the channel is a rendezvous, also wait until a
+	 * receiver has taken the last of them.
+	 * 
+	 * @param words the array holding the words to send.
+	 * @param offset the index of the first word to send.
+	 * @param length the number of words to send.
+	 */
+	public void sendAll(int[] words, int offset, int length) {
+		Lib.assertTrue(offset >= 0 && length >= 0
+				&& offset + length <= words.length);
+
+		lock.acquire();
+
+		long turn = senderTickets++;
+		if (senderTurn != turn)
+			waitInLine(senderLine);
+		Lib.assertTrue(senderTurn == turn);
+
+		while (length > 0) {
+			waitForRoom();
+
+			int tail = (head + count) % buffer.length;
+			int amount = Math.min(length, buffer.length - count);
+			int first = Math.min(amount, buffer.length - tail);
+
+			System.arraycopy(words, offset, buffer, tail, first);
+			System.arraycopy(words, offset + first, buffer, 0, amount - first);
+
+			count += amount;
+			sent += amount;
+			offset += amount;
+			length -= amount;
+			wakeReceiver();
+		}
+
+		senderTurn++;
+		wakeHead(senderLine);
+
+		if (rendezvous)
+			waitUntilReceived(sent);
+
+		lock.release();
+	}
+
+	/**
+	 * Receive a word, waiting until one has been sent.
+	 * 
+	 * @return the word received.
+	 */
+	public int receive() {
+		lock.acquire();
+
+		long turn = receiverTickets++;
+		if (receiverTurn != turn)
+			waitInLine(receiverLine);
+		Lib.assertTrue(receiverTurn == turn);
+
+		waitForWords();
+
+		int word = buffer[head];
+		head = (head + 1) % buffer.length;
+		count--;
+		received++;
+		wakeSenders();
+
+		receiverTurn++;
+		wakeHead(receiverLine);
+
+		lock.release();
+		return word;
+	}
+
+	/**
+	 * Fill an array with received words.
+	 * 
+	 * @param words the array to fill.
+	 */
+	public void receiveInto(int[] words) {
+		receiveInto(words, 0, words.length);
+	}
+
+	/**
+	 * Receive <tt>length</tt> words into an array, in order, waiting until
+	 * that many have been sent.
+	 * 
+	 * @param words the array to store the words in.
+	 * @param offset the index to store the first word at.
+	 * @param length the number of words to receive.
+	 */
+	public void receiveInto(int[] words, int offset, int length) {
+		Lib.assertTrue(offset >= 0 && length >= 0
+				&& offset + length <= words.length);
+
+		lock.acquire();
+
+		long turn = receiverTickets++;
+		if (receiverTurn != turn)
+			waitInLine(receiverLine);
+		Lib.assertTrue(receiverTurn == turn);
+
+		while (length > 0) {
+			waitForWords();
+
+			int amount = Math.min(length, count);
+			int first = Math.min(amount, buffer.length - head);
+
+			System.arraycopy(buffer, head, words, offset, first);
+			System.arraycopy(buffer, 0, words, offset + first, amount - first);
+
+			head = (head + amount) % buffer.length;
+			count -= amount;
+			received += amount;
+			offset += amount;
+			length -= amount;
+			wakeSenders();
+		}
+
+		receiverTurn++;
+		wakeHead(receiverLine);
+
+		lock.release();
+	}
+
+	/**
+	 * Wait until a receiver has taken the word with the specified sequence
+	 * number. The lock must be held.
+	 */
+	private void waitUntilReceived(long word) {
+		while (received < word) {
+			awaitedWord = Math.min(awaitedWord, word);
+			receiptWaiters++;
+			wordsReceived.sleep();
+		}
+	}
+
+	/**
+	 * Wait while the ring is full. Only the sender whose turn it is calls
+	 * this, so at most one thread waits for room. The lock must be held.
+	 */
+	private void waitForRoom() {
+		while (count == buffer.length) {
+			senderWaiting = true;
+			roomAvailable.sleep();
+		}
+	}
+
+	/**
+	 * Wait while the ring is empty. Only the receiver whose turn it is calls
+	 * this, so at most one thread waits for words. The lock must be held.
+	 */
+	private void waitForWords() {
+		while (count == 0) {
+			receiverWaiting = true;
+			wordsAvailable.sleep();
+		}
+	}
+
+	/**
+	 * Called after receivers have taken words. Wake the sender whose turn it
+	 * is if it waits for room, and, once the earliest word a rendezvous sender
+	 * waits for has been taken, the senders waiting for their words to be
+	 * taken. Those that have to go on waiting count themselves again.
+	 */
+	private void wakeSenders() {
+		if (senderWaiting) {
+			senderWaiting = false;
+			roomAvailable.wake();
+		}
+
+		if (receiptWaiters > 0 && received >= awaitedWord) {
+			receiptWaiters = 0;
+			awaitedWord = Long.MAX_VALUE;
+			wordsReceived.wakeAll();
+		}
+	}
+
+	/**
+	 * Called after a sender has added words. Wake the receiver whose turn it
+	 * is if it waits for words.
+	 */
+	private void wakeReceiver() {
+		if (receiverWaiting) {
+			receiverWaiting = false;
+			wordsAvailable.wake();
+		}
+	}
+
+	/**
+	 * Sleep at the end of a line until <tt>wakeHead()</tt> hands the current
+	 * thread its turn. Threads join a line in the order of their tickets, so
+	 * the head of a line always holds the next turn. The lock must be held,
+	 * and is held again on return.
+	 */
+	private void waitInLine(ArrayDeque<KThread> line) {
+		boolean intStatus = Machine.interrupt().disable();
+
+		line.add(KThread.currentThread());
+		lock.release();
+		KThread.sleep();
+		lock.acquire();
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Hand the turn that just started to the head of a line, if any thread
+	 * waits for it. The lock must be held.
+	 */
+	private void wakeHead(ArrayDeque<KThread> line) {
+		KThread next = line.poll();
+		if (next != null) {
+			boolean intStatus = Machine.interrupt().disable();
+			next.ready();
+			Machine.interrupt().restore(intStatus);
+		}
+	}
+
+	private boolean rendezvous;
+
+	/** The ring the words are kept in. */
+	private int[] buffer;
+
+	/** The index of the oldest word in the ring. */
+	private int head = 0;
+
+	/** The number of words in the ring. */
+	private int count = 0;
+
+	/** The number of words ever sent and received. */
+	private long sent = 0, received = 0;
+
+	/** The turns handed out to senders, and the turn of the current one. */
+	private long senderTickets = 0, senderTurn = 0;
+
+	/** The turns handed out to receivers, and the turn of the current one. */
+	private long receiverTickets = 0, receiverTurn = 0;
+
+	/** The senders and receivers waiting for their turns, in ticket order. */
+	private ArrayDeque<KThread> senderLine = new ArrayDeque<KThread>(),
+			receiverLine = new ArrayDeque<KThread>();
+
+	/** Whether the sender or receiver whose turn it is waits on the ring. */
+	private boolean senderWaiting = false, receiverWaiting = false;
+
+	/** The number of rendezvous senders waiting for their words to be taken. */
+	private int receiptWaiters = 0;
+
+	/** The earliest word a rendezvous sender waits for. */
+	private long awaitedWord = Long.MAX_VALUE;
+
+	private Lock lock = new Lock();
+
+	private Condition2 roomAvailable = new Condition2(lock);
+
+	private Condition2 wordsAvailable = new Condition2(lock);
+
+	private Condition2 wordsReceived = new Condition2(lock);
+}
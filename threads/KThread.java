@@ -57,7 +57,6 @@ public class KThread {
 	 * create an idle thread as well.
 	 */
 	public KThread() {
-		join_lock = new Semaphore(0);
 		//kthreads = new LinkedList<KThread>();
 		if (currentThread != null) {
 			tcb = new TCB();
@@ -71,6 +70,9 @@ public class KThread {
 			name = "main";
 			restoreState();
 
+			if (DeadlockDetector.enabled)
+				DeadlockDetector.threadStarted();
+
 			createIdleThread();
 		}
 	}
@@ -169,8 +171,12 @@ public class KThread {
 			}
 		});
 
+		joinQueue.acquire(this);
 		ready();
 
+		if (DeadlockDetector.enabled && this != idleThread)
+			DeadlockDetector.threadStarted();
+
 		Machine.interrupt().restore(intStatus);
 	}
 
@@ -207,17 +213,18 @@ public class KThread {
 
 		Machine.autoGrader().finishingCurrentThread();
 
+		ThreadedKernel.scheduler.threadFinished(currentThread);
+		if (DeadlockDetector.enabled)
+			DeadlockDetector.threadFinished();
+
 		//System.out.println("assert check");
 		Lib.assertTrue(toBeDestroyed == null);
 		//System.out.println("pass assert check");
 		toBeDestroyed = currentThread;
 
-		KThread a = currentThread.joinQueue.nextThread();
-		while(a != null){
-			currentThread.joinQueue.acquire(a);
-			a = currentThread.joinQueue.nextThread();
-		}
-		currentThread.join_lock.V();
+		KThread joiner;
+		while ((joiner = currentThread.joinQueue.nextThread()) != null)
+			joiner.ready();
 		currentThread.joinQueue = null;
 
 		currentThread.status = statusFinished;
@@ -287,8 +294,10 @@ public class KThread {
 		Lib.assertTrue(status != statusReady);
 
 		status = statusReady;
-		if (this != idleThread)
+		if (this != idleThread) {
 			readyQueue.waitForAccess(this);
+			ThreadedKernel.scheduler.threadReady(this);
+		}
 
 		Machine.autoGrader().readyThread(this);
 	}
@@ -303,19 +312,22 @@ public class KThread {
 
 		Lib.assertTrue(this != currentThread);
 
-		if(this.status == statusFinished){
-			return ;
+		boolean intStatus = Machine.interrupt().disable();
+
+		/*
+		 * Wait in this thread's join queue, rather than on a semaphore, so
+		 * that the joining thread donates its priority to this thread.
+		 */
+		if (status != statusFinished) {
+			joinQueue.waitForAccess(currentThread);
+			if (DeadlockDetector.enabled)
+				DeadlockDetector.blocked(this);
+			sleep();
+			if (DeadlockDetector.enabled)
+				DeadlockDetector.woke();
 		}
 
-		//Semaphore a = new Semaphore(0);
-		//while(currentThread.status != statusFinished)
-		//System.out.println("current thread is: " + currentThread.getName());	
-		//System.out.println("this thread is: " + this.getName());
-		//while(this.status != statusFinished)
-		join_lock.P();
-		//join_lock.V();
-		//kthreads.add(this);
-		//a.P();
+		Machine.interrupt().restore(intStatus);
 	}
 
 	
@@ -338,7 +350,7 @@ public class KThread {
 		idleThread = new KThread(new Runnable() {
 			public void run() {
 				while (true)
-					yield();
+					idle();
 			}
 		});
 		idleThread.setName("idle");
@@ -348,6 +360,31 @@ public class KThread {
 		idleThread.fork();
 	}
 
+	/**
+	 * Called repeatedly by the idle thread. If another thread is ready to run,
+	 * yield to it. Otherwise nothing can happen until the next interrupt, so
+	 * skip the simulated time ahead to it instead of spinning until it is due,
+	 * unless the deadlock detector finds that no thread can ever run again.
+	 */
+	private static void idle() {
+		Lib.assertTrue(currentThread == idleThread);
+
+		boolean intStatus = Machine.interrupt().disable();
+
+		KThread nextThread = readyQueue.nextThread();
+		if (nextThread != null) {
+			currentThread.ready();
+			nextThread.run();
+		}
+		else {
+			if (DeadlockDetector.enabled)
+				DeadlockDetector.idle();
+			Machine.interrupt().idle();
+		}
+
+		Machine.interrupt().restore(intStatus);
+	}
+
 	/**
 	 * Determine the next thread to run, then dispatch the CPU to the thread
 	 * using <tt>run()</tt>.
@@ -411,6 +448,8 @@ public class KThread {
 
 		status = statusRunning;
 
+		ThreadedKernel.scheduler.threadRunning(this);
+
 		if (toBeDestroyed != null) {
 			toBeDestroyed.tcb.destroy();
 			toBeDestroyed.tcb = null;
@@ -419,12 +458,14 @@ public class KThread {
 	}
 
 	/**
-	 * Prepare this thread to give up the processor. Kernel threads do not need
-	 * to do anything here.
+	 * Prepare this thread to give up the processor. Kernel threads only need
+	 * to tell the scheduler.
 	 */
 	protected void saveState() {
 		Lib.assertTrue(Machine.interrupt().disabled());
 		Lib.assertTrue(this == currentThread);
+
+		ThreadedKernel.scheduler.threadStopped(this);
 	}
 
 	/*private static class PingTest implements Runnable {
@@ -637,7 +678,6 @@ private static class JoinTest implements Runnable
 	private static KThread idleThread = null;
 
 	private ThreadQueue joinQueue = ThreadedKernel.scheduler.newThreadQueue(true);
-	public Semaphore join_lock;
 	//private static LinkedList<KThread> kthreads;
 
 }
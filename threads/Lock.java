@@ -17,6 +17,14 @@ import nachos.machine.*;
  * Also, only the thread that acquired a lock may release it. As with
  * semaphores, the API does not allow you to read the lock state (because the
  * value could change immediately after you read it).
+ * 
+ * <p>
+ * A lock no other thread wants is acquired and released without disabling
+ * interrupts or going through the scheduler. Threads only switch on
+ * interrupts, which are only taken when the simulated time advances, and
+ * testing and setting the holder does not advance it, so this is still
+ * atomic. The wait queue is only told who holds the lock when a thread has to
+ * wait for it, which is the first time priority can be donated to the holder.
  */
 public class Lock {
 	/**
@@ -32,21 +40,80 @@ public class Lock {
 	public void acquire() {
 		Lib.assertTrue(!isHeldByCurrentThread());
 
-		boolean intStatus = Machine.interrupt().disable();
 		KThread thread = KThread.currentThread();
 
-		if (lockHolder != null) {
-			waitQueue.waitForAccess(thread);
-			KThread.sleep();
-		}
-		else {
-			waitQueue.acquire(thread);
+		if (lockHolder == null) {
 			lockHolder = thread;
+			if (profile != null)
+				profile.acquired();
+			return;
 		}
 
+		boolean intStatus = Machine.interrupt().disable();
+		long since = Machine.timer().getTime();
+
+		queueHolder();
+		waitQueue.waitForAccess(thread);
+		if (DeadlockDetector.enabled)
+			DeadlockDetector.blocked(this);
+		KThread.sleep();
+		if (DeadlockDetector.enabled)
+			DeadlockDetector.woke();
+
 		Lib.assertTrue(lockHolder == thread);
+		if (profile != null)
+			profile.waited(since, true);
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Acquire this lock if it is free, without waiting. The current thread
+	 * must not already hold this lock.
+	 * 
+	 * @return <tt>true</tt> if the lock was acquired.
+	 */
+	public boolean tryAcquire() {
+		return tryAcquire(0);
+	}
+
+	/**
+	 * Atomically acquire this lock, waiting at least the specified number of
+	 * ticks for it to become free, and giving up on the first timer interrupt
+	 * after that. The current thread must not already hold this lock.
+	 * 
+	 * @param ticks the minimum number of clock ticks to wait, or 0 not to
+	 * wait.
+	 * @return <tt>true</tt> if the lock was acquired.
+	 */
+	public boolean tryAcquire(long ticks) {
+		Lib.assertTrue(!isHeldByCurrentThread());
+
+		KThread thread = KThread.currentThread();
+
+		if (lockHolder == null) {
+			lockHolder = thread;
+			if (profile != null)
+				profile.acquired();
+			return true;
+		}
+		else if (ticks <= 0) {
+			return false;
+		}
+
+		boolean intStatus = Machine.interrupt().disable();
+		long since = Machine.timer().getTime();
+
+		queueHolder();
+		waitQueue.waitForAccess(thread);
+		boolean acquired = ThreadedKernel.alarm.waitInQueue(waitQueue, ticks);
+
+		Lib.assertTrue(acquired == (lockHolder == thread));
+		if (profile != null)
+			profile.waited(since, acquired);
 
 		Machine.interrupt().restore(intStatus);
+		return acquired;
 	}
 
 	/**
@@ -55,14 +122,36 @@ public class Lock {
 	public void release() {
 		Lib.assertTrue(isHeldByCurrentThread());
 
+		if (profile != null)
+			profile.released();
+
+		if (!holderQueued) {
+			lockHolder = null;
+			return;
+		}
+
 		boolean intStatus = Machine.interrupt().disable();
 
 		if ((lockHolder = waitQueue.nextThread()) != null)
 			lockHolder.ready();
+		else
+			holderQueued = false;
 
 		Machine.interrupt().restore(intStatus);
 	}
 
+	/**
+	 * Tell the wait queue which thread holds this lock, if it was claimed
+	 * without the queue knowing, so that threads about to wait in the queue
+	 * can donate priority to it. Interrupts must be disabled.
+	 */
+	private void queueHolder() {
+		if (!holderQueued) {
+			waitQueue.acquire(lockHolder);
+			holderQueued = true;
+		}
+	}
+
 	/**
 	 * Test if the current thread holds this lock.
 	 * 
@@ -72,8 +161,32 @@ public class Lock {
 		return (lockHolder == KThread.currentThread());
 	}
 
+	/**
+	 * Return the thread holding this lock, if any.
+	 */
+	KThread getHolder() {
+		return lockHolder;
+	}
+
+	/**
+	 * Return the contention statistics of this lock, or <tt>null</tt> if
+	 * profiling was off when it was allocated.
+	 */
+	LockProfile getProfile() {
+		return profile;
+	}
+
 	private KThread lockHolder = null;
 
+	/**
+	 * Whether the wait queue knows that <tt>lockHolder</tt> holds this lock.
+	 * It does whenever threads are waiting for the lock.
+	 */
+	private boolean holderQueued = false;
+
 	private ThreadQueue waitQueue = ThreadedKernel.scheduler
 			.newThreadQueue(true);
+
+	/** The contention statistics of this lock, if they are kept. */
+	private LockProfile profile = LockProfile.create("Lock");
 }
@@ -0,0 +1,200 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Contention statistics for one lock or semaphore. They are kept when the
+ * <tt>nachos.conf</tt> key <tt>ThreadedKernel.lockProfile</tt> is
+ * <tt>true</tt>, and <tt>ThreadedKernel.terminate()</tt> prints those of every
+ * lock and semaphore that was used, just before the machine halts, sorted by
+ * the total time threads waited for them. Otherwise locks and semaphores have
+ * no profile, and only test for one.
+ * 
+ * <p>
+ * Each profile counts acquisitions, and those that had to wait. A wait is
+ * timed in simulated ticks from when the thread started waiting until it runs
+ * again, so it includes the time spent in the ready queue after being woken.
+ * The hold time of a lock is timed from then until it is released.
+ * Semaphores are not held by a thread, so only their waits are timed. A
+ * profile is named after where its lock or semaphore was allocated, skipping
+ * the constructors of the synchronization classes of this package, so that
+ * the lock inside a <tt>SynchList</tt> is named after the code that allocated
+ * the list.
+ */
+class LockProfile {
+	/**
+	 * Allocate a new profile, if profiling is on.
+	 * 
+	 * @param kind the kind of object profiled, such as <tt>"Lock"</tt>.
+	 * @return the new profile, or <tt>null</tt> if profiling is off.
+	 */
+	static LockProfile create(String kind) {
+		if (!enabled)
+			return null;
+
+		LockProfile profile = new LockProfile(kind + " #" + profiles.size()
+				+ " from " + allocationSite(), kind.equals("Lock"));
+		profiles.add(profile);
+		return profile;
+	}
+
+	/**
+	 * Called when the object was acquired without waiting.
+	 */
+	void acquired() {
+		acquisitions++;
+		acquiredAt = Machine.timer().getTime();
+	}
+
+	/**
+	 * Called when the current thread stops waiting for the object.
+	 * 
+	 * @param since the time the current thread started waiting.
+	 * @param acquired <tt>true</tt> if it acquired the object, or
+	 * <tt>false</tt> if it gave up waiting.
+	 */
+	void waited(long since, boolean acquired) {
+		long time = Machine.timer().getTime();
+		long wait = time - since;
+
+		contended++;
+		totalWait += wait;
+		maxWait = Math.max(maxWait, wait);
+
+		if (acquired) {
+			acquisitions++;
+			acquiredAt = time;
+		}
+	}
+
+	/**
+	 * Called when a lock is released.
+	 */
+	void released() {
+		long hold = Machine.timer().getTime() - acquiredAt;
+
+		totalHold += hold;
+		maxHold = Math.max(maxHold, hold);
+	}
+
+	/**
+	 * Print the profiles of the locks and semaphores that were acquired, or
+	 * waited for, in decreasing order of total wait.
+	 */
+	static void print() {
+		if (!enabled)
+			return;
+
+		ArrayList<LockProfile> used = new ArrayList<LockProfile>();
+		for (LockProfile profile : profiles) {
+			if (profile.acquisitions > 0 || profile.contended > 0)
+				used.add(profile);
+		}
+
+		Collections.sort(used, new Comparator<LockProfile>() {
+			public int compare(LockProfile a, LockProfile b) {
+				if (a.totalWait != b.totalWait)
+					return (a.totalWait > b.totalWait) ? -1 : 1;
+				return (a.acquisitions > b.acquisitions) ? -1
+						: (a.acquisitions < b.acquisitions) ? 1 : 0;
+			}
+		});
+
+		System.out.println("Lock contention: " + used.size() + " of "
+				+ profiles.size() + " used, by total wait in ticks");
+
+		for (int i = 0; i < used.size() && i < maxPrinted; i++) {
+			LockProfile profile = used.get(i);
+
+			System.out.println("  " + profile.name + ": acquired "
+					+ profile.acquisitions + ", contended " + profile.contended
+					+ ", wait " + profile.totalWait + " (max " + profile.maxWait
+					+ ")" + (profile.held ? ", hold "
+							+ profile.totalHold + " (max " + profile.maxHold
+							+ ")" : ""));
+		}
+
+		if (used.size() > maxPrinted)
+			System.out.println("  " + (used.size() - maxPrinted) + " more");
+	}
+
+	/** Return the number of times the object was acquired. */
+	long getAcquisitions() {
+		return acquisitions;
+	}
+
+	/** Return the number of times a thread had to wait for the object. */
+	long getContended() {
+		return contended;
+	}
+
+	/** Return the total number of ticks threads waited for the object. */
+	long getTotalWait() {
+		return totalWait;
+	}
+
+	/** Return the total number of ticks the lock was held. */
+	long getTotalHold() {
+		return totalHold;
+	}
+
+	private LockProfile(String name, boolean held) {
+		this.name = name;
+		this.held = held;
+	}
+
+	/**
+	 * Return the first frame of the current stack outside this class and the
+	 * constructors of the synchronization classes.
+	 */
+	private static String allocationSite() {
+		StackTraceElement[] stack = new Throwable().getStackTrace();
+
+		frames: for (int i = 0; i < stack.length; i++) {
+			String className = stack[i].getClassName();
+			if (className.equals(LockProfile.class.getName()))
+				continue;
+
+			for (int j = 0; j < wrappers.length; j++) {
+				if (className.equals(wrappers[j].getName())
+						&& stack[i].getMethodName().equals("<init>"))
+					continue frames;
+			}
+
+			return stack[i].toString();
+		}
+
+		return "unknown";
+	}
+
+	/** Whether new locks and semaphores are profiled. */
+	static boolean enabled = false;
+
+	private static ArrayList<LockProfile> profiles = new ArrayList<LockProfile>();
+
+	/** The most profiles <tt>print()</tt> prints. */
+	private static final int maxPrinted = 20;
+
+	/** The classes whose constructors allocate locks and semaphores. */
+	private static final Class<?>[] wrappers = { Lock.class, Semaphore.class,
+			Condition.class, Condition2.class, ReadWriteLock.class,
+			SynchList.class, IntChannel.class, Communicator.class };
+
+	private String name;
+
+	/** Whether the object is held between acquire and release. */
+	private boolean held;
+
+	private long acquisitions = 0, contended = 0;
+
+	private long totalWait = 0, maxWait = 0;
+
+	private long totalHold = 0, maxHold = 0;
+
+	/** When the lock was last acquired. */
+	private long acquiredAt;
+}
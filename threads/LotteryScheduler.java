@@ -2,10 +2,6 @@ package nachos.threads;
 
 import nachos.machine.*;
 
-import java.util.TreeSet;
-import java.util.HashSet;
-import java.util.Iterator;
-
 /**
  * A scheduler that chooses threads using a lottery.
  * 
@@ -41,7 +37,427 @@ public class LotteryScheduler extends PriorityScheduler {
 	 * @return a new lottery thread queue.
 	 */
 	public ThreadQueue newThreadQueue(boolean transferPriority) {
-		// implement me
-		return null;
+		return new LotteryQueue(transferPriority);
+	}
+
+	public void setPriority(KThread thread, int priority) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		Lib.assertTrue(priority >= ticketsMinimum
+				&& priority <= ticketsMaximum);
+
+		getThreadState(thread).setPriority(priority);
+	}
+
+	public boolean increasePriority() {
+		boolean intStatus = Machine.interrupt().disable();
+		boolean ret = true;
+
+		KThread thread = KThread.currentThread();
+
+		int priority = getPriority(thread);
+		if (priority == ticketsMaximum)
+			ret = false;
+		else
+			setPriority(thread, priority + 1);
+
+		Machine.interrupt().restore(intStatus);
+		return ret;
+	}
+
+	public boolean decreasePriority() {
+		boolean intStatus = Machine.interrupt().disable();
+		boolean ret = true;
+
+		KThread thread = KThread.currentThread();
+
+		int priority = getPriority(thread);
+		if (priority == ticketsMinimum)
+			ret = false;
+		else
+			setPriority(thread, priority - 1);
+
+		Machine.interrupt().restore(intStatus);
+		return ret;
+	}
+
+	/**
+	 * The minimum number of tickets that a thread can have.
+	 */
+	public static final int ticketsMinimum = 1;
+
+	/**
+	 * The maximum number of tickets that a thread can have.
+	 */
+	public static final int ticketsMaximum = Integer.MAX_VALUE;
+
+	/**
+	 * Return the scheduling state of the specified thread.
+	 * 
+	 * @param thread the thread whose scheduling state to return.
+	 * @return the scheduling state of the specified thread.
+	 */
+	protected ThreadState getThreadState(KThread thread) {
+		if (thread.schedulingState == null)
+			thread.schedulingState = new LotteryThreadState(thread);
+
+		return (ThreadState) thread.schedulingState;
+	}
+
+	/**
+	 * A <tt>ThreadQueue</tt> that holds a lottery among its waiting threads.
+	 * 
+	 * <p>
+	 * Each waiting thread has a slot in a Fenwick tree of ticket counts, so
+	 * that drawing the winning ticket, and changing the tickets of a waiting
+	 * thread, both take time logarithmic in the number of waiting threads.
+	 * Slots of threads that leave are reused.
+	 */
+	protected class LotteryQueue extends ThreadQueue {
+		LotteryQueue(boolean transferPriority) {
+			this.transferPriority = transferPriority;
+		}
+
+		public void waitForAccess(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+			getLotteryState(thread).waitForAccess(this);
+		}
+
+		public void acquire(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+			getLotteryState(thread).acquire(this);
+		}
+
+		public boolean remove(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			LotteryThreadState state = getLotteryState(thread);
+			if (state.lotteryWaitingOn != this)
+				return false;
+
+			state.leave(this);
+			return true;
+		}
+
+		public KThread nextThread() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			LotteryThreadState winner = pickNextThread();
+			if (winner == null) {
+				if (holder != null)
+					holder.release(this);
+
+				return null;
+			}
+
+			winner.leave(this);
+			winner.acquire(this);
+
+			return winner.thread;
+		}
+
+		/**
+		 * Draw the winning ticket, without modifying the state of this queue.
+		 * 
+		 * @return the thread holding the winning ticket, or <tt>null</tt> if
+		 * no thread is waiting.
+		 */
+		protected LotteryThreadState pickNextThread() {
+			if (size == 0)
+				return null;
+
+			long ticket;
+			if (totalTickets <= Integer.MAX_VALUE)
+				ticket = Lib.random((int) totalTickets);
+			else
+				ticket = (long) (Lib.random() * totalTickets);
+
+			return slots[find(ticket)];
+		}
+
+		public void print() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			for (int i = 0; i < used; i++) {
+				if (slots[i] != null)
+					System.out.print(slots[i].thread + " ");
+			}
+		}
+
+		/**
+		 * Give a waiting thread a slot, holding its effective tickets.
+		 */
+		void add(LotteryThreadState state) {
+			if (freeCount == 0 && used == slots.length)
+				grow();
+
+			int slot = (freeCount > 0) ? free[--freeCount] : used++;
+			slots[slot] = state;
+			state.slot = slot;
+			size++;
+
+			state.queuedTickets = state.effectiveTickets;
+			update(slot, state.queuedTickets);
+		}
+
+		/**
+		 * Take the slot of a waiting thread away, and free it for reuse.
+		 */
+		void remove(LotteryThreadState state) {
+			int slot = state.slot;
+			update(slot, -state.queuedTickets);
+
+			slots[slot] = null;
+			state.slot = -1;
+			free[freeCount++] = slot;
+			size--;
+		}
+
+		/**
+		 * Add <tt>delta</tt> tickets to a slot.
+		 */
+		void update(int slot, long delta) {
+			totalTickets += delta;
+
+			for (int i = slot + 1; i <= slots.length; i += i & -i)
+				tree[i] += delta;
+		}
+
+		/**
+		 * Find the slot holding the specified ticket, counting the tickets of
+		 * all the slots in order.
+		 */
+		private int find(long ticket) {
+			int position = 0;
+
+			for (int step = Integer.highestOneBit(slots.length); step > 0; step >>= 1) {
+				int next = position + step;
+				if (next <= slots.length && tree[next] <= ticket) {
+					position = next;
+					ticket -= tree[next];
+				}
+			}
+
+			return position;
+		}
+
+		/**
+		 * Double the number of slots. The tree has to be rebuilt, since the
+		 * ranges its nodes cover depend on its size.
+		 */
+		private void grow() {
+			LotteryThreadState[] oldSlots = slots;
+
+			slots = new LotteryThreadState[oldSlots.length * 2];
+			tree = new long[slots.length + 1];
+			free = new int[slots.length];
+
+			System.arraycopy(oldSlots, 0, slots, 0, oldSlots.length);
+
+			for (int i = 1; i <= slots.length; i++) {
+				if (slots[i - 1] != null)
+					tree[i] += slots[i - 1].queuedTickets;
+
+				int parent = i + (i & -i);
+				if (parent <= slots.length)
+					tree[parent] += tree[i];
+			}
+		}
+
+		/**
+		 * <tt>true</tt> if this queue should transfer tickets from waiting
+		 * threads to the owning thread.
+		 */
+		public boolean transferPriority;
+
+		/**
+		 * The thread that last acquired this queue, if it transfers tickets.
+		 */
+		LotteryThreadState holder = null;
+
+		/** The sum of the effective tickets of the waiting threads. */
+		long totalTickets = 0;
+
+		/** The waiting thread in each slot, or <tt>null</tt>. */
+		private LotteryThreadState[] slots = new LotteryThreadState[initialSlots];
+
+		/** The Fenwick tree over the tickets in each slot, indexed from 1. */
+		private long[] tree = new long[initialSlots + 1];
+
+		/** A stack of the free slots below <tt>used</tt>. */
+		private int[] free = new int[initialSlots];
+
+		private int freeCount = 0;
+
+		/** The number of slots that have ever been used. */
+		private int used = 0;
+
+		/** The number of waiting threads. */
+		private int size = 0;
 	}
+
+	private LotteryThreadState getLotteryState(KThread thread) {
+		return (LotteryThreadState) getThreadState(thread);
+	}
+
+	/**
+	 * The scheduling state of a thread in a lottery scheduler. The effective
+	 * tickets of a thread are its own tickets plus the effective tickets of
+	 * every thread waiting in a queue it holds. They are kept up to date by
+	 * passing each change on, as a difference, to the holder of the queue the
+	 * thread waits in.
+	 */
+	protected class LotteryThreadState extends ThreadState {
+		/**
+		 * Allocate a new <tt>LotteryThreadState</tt> object and associate it
+		 * with the specified thread.
+		 * 
+		 * @param thread the thread this state belongs to.
+		 */
+		public LotteryThreadState(KThread thread) {
+			super(thread);
+		}
+
+		/**
+		 * Return the effective tickets of the associated thread, or
+		 * <tt>ticketsMaximum</tt> if they no longer fit in an <tt>int</tt>.
+		 * 
+		 * @return the effective tickets of the associated thread.
+		 */
+		public int getEffectivePriority() {
+			return (int) Math.min(effectiveTickets, ticketsMaximum);
+		}
+
+		/**
+		 * Set the tickets of the associated thread to the specified value.
+		 * This is also called by the <tt>ThreadState</tt> constructor, before
+		 * the fields of this class are initialized, so they must not have
+		 * initializers.
+		 * 
+		 * @param priority the new number of tickets.
+		 */
+		public void setPriority(int priority) {
+			if (this.priority == priority)
+				return;
+
+			long delta = (long) priority - this.priority;
+			this.priority = priority;
+
+			addTickets(delta);
+		}
+
+		/**
+		 * Called when the associated thread starts waiting in
+		 * <tt>waitQueue</tt>.
+		 */
+		void waitForAccess(LotteryQueue waitQueue) {
+			Lib.assertTrue(lotteryWaitingOn == null);
+
+			lotteryWaitingOn = waitQueue;
+			waitQueue.add(this);
+
+			if (waitQueue.transferPriority && waitQueue.holder != null)
+				waitQueue.holder.addTickets(queuedTickets);
+		}
+
+		/**
+		 * Called when the associated thread stops waiting in
+		 * <tt>waitQueue</tt>, because it won the lottery or gave up.
+		 */
+		void leave(LotteryQueue waitQueue) {
+			Lib.assertTrue(lotteryWaitingOn == waitQueue);
+
+			long tickets = queuedTickets;
+			waitQueue.remove(this);
+			lotteryWaitingOn = null;
+
+			if (waitQueue.transferPriority && waitQueue.holder != null)
+				waitQueue.holder.addTickets(-tickets);
+		}
+
+		/**
+		 * Called when the associated thread has acquired access to whatever is
+		 * guarded by <tt>waitQueue</tt>. It takes over the tickets of the
+		 * threads still waiting from the previous holder.
+		 */
+		void acquire(LotteryQueue waitQueue) {
+			if (!waitQueue.transferPriority)
+				return;
+
+			if (waitQueue.holder != null)
+				waitQueue.holder.release(waitQueue);
+
+			waitQueue.holder = this;
+			addTickets(waitQueue.totalTickets);
+		}
+
+		/**
+		 * Called when the associated thread no longer holds
+		 * <tt>waitQueue</tt>.
+		 */
+		void release(LotteryQueue waitQueue) {
+			Lib.assertTrue(waitQueue.holder == this);
+
+			waitQueue.holder = null;
+			addTickets(-waitQueue.totalTickets);
+		}
+
+		/**
+		 * Add <tt>delta</tt> effective tickets to the associated thread, and
+		 * to each thread down the chain of queue holders it waits on. If the
+		 * chain runs into a cycle there is a deadlock, and the walk stops
+		 * before passing the change on to a thread it has already visited,
+		 * rather than going around forever. The last thread then has more
+		 * effective tickets than it holds in its queue, which is why the
+		 * tickets in the queue are kept separately: they are exactly what
+		 * the thread gave the holder, and what it takes back if it stops
+		 * waiting, for example when a timed wait breaks the deadlock.
+		 */
+		void addTickets(long delta) {
+			if (delta == 0)
+				return;
+
+			int walk = ++walks;
+
+			LotteryThreadState state = this;
+			do {
+				state.effectiveTickets += delta;
+				state.lastWalk = walk;
+
+				LotteryQueue queue = state.lotteryWaitingOn;
+				if (queue == null)
+					return;
+
+				LotteryThreadState holder = queue.transferPriority ? queue.holder
+						: null;
+				if (holder != null && holder.lastWalk == walk)
+					return;
+
+				state.queuedTickets += delta;
+				queue.update(state.slot, delta);
+
+				state = holder;
+			} while (state != null);
+		}
+
+		/** The effective tickets of the associated thread. */
+		long effectiveTickets;
+
+		/** The queue this thread waits in, or <tt>null</tt>. */
+		LotteryQueue lotteryWaitingOn;
+
+		/** The slot of this thread in <tt>lotteryWaitingOn</tt>. */
+		int slot;
+
+		/** The tickets this thread holds in its slot. */
+		long queuedTickets;
+
+		/** The last <tt>addTickets()</tt> walk that passed this thread. */
+		int lastWalk;
+	}
+
+	/** The number of <tt>addTickets()</tt> walks so far. */
+	private int walks = 0;
+
+	private static final int initialSlots = 4;
 }
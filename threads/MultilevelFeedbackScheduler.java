@@ -0,0 +1,278 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * A multi-level feedback queue scheduler. Threads start at the highest level,
+ * and each queue gives access to the threads at its highest occupied level
+ * first, in FIFO order.
+ * 
+ * <p>
+ * The scheduler learns how a thread behaves from how it gives up the CPU. A
+ * thread that uses up a whole timer quantum, summed over the times it was
+ * dispatched at its level, is moved down a level. It is usually caught doing
+ * that when <tt>Alarm.timerInterrupt()</tt> makes it yield. A thread that
+ * blocks after a burst shorter than a quantum, like one waiting for the
+ * console, is moved up a level when it wakes up. Every
+ * <tt>boostInterval</tt> ticks all threads go back to the highest level, so
+ * that threads that have been moved down cannot starve.
+ * 
+ * <p>
+ * Priorities cannot be set; the priority of a thread is its level, counted up
+ * from the lowest. Priority is not transferred.
+ */
+public class MultilevelFeedbackScheduler extends Scheduler {
+	/**
+	 * Allocate a new multi-level feedback queue scheduler.
+	 */
+	public MultilevelFeedbackScheduler() {
+	}
+
+	/**
+	 * Allocate a new multi-level thread queue.
+	 * 
+	 * @param transferPriority ignored. Priority is not transferred.
+	 * @return a new multi-level thread queue.
+	 */
+	public ThreadQueue newThreadQueue(boolean transferPriority) {
+		return new FeedbackQueue();
+	}
+
+	public int getPriority(KThread thread) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		return levels - 1 - getThreadState(thread).level();
+	}
+
+	public int getEffectivePriority(KThread thread) {
+		return getPriority(thread);
+	}
+
+	/**
+	 * The number of levels.
+	 */
+	public static final int levels = 4;
+
+	/**
+	 * The time a thread may run at one level before it is moved down.
+	 */
+	public static final long quantum = Stats.TimerTicks;
+
+	/**
+	 * The time between moving all threads back to the highest level.
+	 */
+	public static final long boostInterval = 20 * Stats.TimerTicks;
+
+	/**
+	 * Return the scheduling state of the specified thread.
+	 * 
+	 * @param thread the thread whose scheduling state to return.
+	 * @return the scheduling state of the specified thread.
+	 */
+	protected ThreadState getThreadState(KThread thread) {
+		if (thread.schedulingState == null)
+			thread.schedulingState = new ThreadState(thread);
+
+		return (ThreadState) thread.schedulingState;
+	}
+
+	/**
+	 * Start a new boost period if the current one is over. Threads and queues
+	 * catch up with the boost the next time they are used, so this takes
+	 * constant time.
+	 */
+	private void checkBoost() {
+		long time = Machine.timer().getTime();
+
+		if (time >= nextBoost) {
+			boosts++;
+			nextBoost = time + boostInterval;
+		}
+	}
+
+	/**
+	 * A <tt>ThreadQueue</tt> with an array deque of waiting threads for each
+	 * level.
+	 */
+	protected class FeedbackQueue extends ThreadQueue {
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		FeedbackQueue() {
+			waitQueues = new ArrayDeque[levels];
+			for (int level = 0; level < levels; level++)
+				waitQueues[level] = new ArrayDeque<ThreadState>();
+		}
+
+		public void waitForAccess(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			ThreadState state = getThreadState(thread);
+			state.waitForAccess();
+
+			catchUp();
+			waitQueues[state.level()].addLast(state);
+		}
+
+		public KThread nextThread() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			checkBoost();
+			catchUp();
+
+			for (int level = 0; level < levels; level++) {
+				ThreadState state = waitQueues[level].pollFirst();
+				if (state != null) {
+					state.dispatched();
+					return state.thread;
+				}
+			}
+
+			return null;
+		}
+
+		/**
+		 * The specified thread has received exclusive access, without using
+		 * <tt>waitForAccess()</tt> or <tt>nextThread()</tt>. Nothing to do,
+		 * since priority is not transferred.
+		 */
+		public void acquire(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+		}
+
+		public boolean remove(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			ThreadState state = getThreadState(thread);
+			for (int level = 0; level < levels; level++) {
+				if (waitQueues[level].remove(state))
+					return true;
+			}
+
+			return false;
+		}
+
+		public void print() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			for (int level = 0; level < levels; level++) {
+				for (Iterator<ThreadState> i = waitQueues[level].iterator(); i.hasNext();)
+					System.out.print(i.next().thread + " ");
+			}
+		}
+
+		/**
+		 * If a boost has happened since this queue was last used, move all
+		 * its threads to the highest level, keeping their order.
+		 */
+		private void catchUp() {
+			if (boost == boosts)
+				return;
+
+			boost = boosts;
+			for (int level = 1; level < levels; level++) {
+				while (!waitQueues[level].isEmpty())
+					waitQueues[0].addLast(waitQueues[level].pollFirst());
+			}
+		}
+
+		private ArrayDeque<ThreadState>[] waitQueues;
+
+		/** The last boost this queue has caught up with. */
+		private int boost = 0;
+	}
+
+	/**
+	 * The scheduling state of a thread in a multi-level feedback queue
+	 * scheduler.
+	 * 
+	 * @see nachos.threads.KThread#schedulingState
+	 */
+	protected class ThreadState {
+		/**
+		 * Allocate a new <tt>ThreadState</tt> object and associate it with the
+		 * specified thread.
+		 * 
+		 * @param thread the thread this state belongs to.
+		 */
+		public ThreadState(KThread thread) {
+			this.thread = thread;
+			this.boost = boosts;
+		}
+
+		/**
+		 * Return the level of the associated thread, which is the highest if
+		 * there has been a boost since the thread was last looked at.
+		 */
+		int level() {
+			if (boost != boosts) {
+				boost = boosts;
+				level = 0;
+				used = 0;
+			}
+
+			return level;
+		}
+
+		/**
+		 * Called when the associated thread is dequeued. If this is the ready
+		 * queue, it starts running now.
+		 */
+		void dispatched() {
+			dispatchTime = Machine.timer().getTime();
+		}
+
+		/**
+		 * Called when the associated thread starts waiting in a queue. If it
+		 * is the current thread it is giving up the CPU, by yielding or by
+		 * blocking, and is charged for the time it ran. Otherwise it has been
+		 * woken up after blocking.
+		 */
+		void waitForAccess() {
+			level();
+
+			if (thread == KThread.currentThread()) {
+				if (dispatchTime < 0)
+					return;
+
+				lastBurst = Machine.timer().getTime() - dispatchTime;
+				dispatchTime = -1;
+
+				used += lastBurst;
+				if (level < levels - 1 && used >= quantum) {
+					level++;
+					used = 0;
+				}
+			}
+			else if (lastBurst < quantum && level > 0) {
+				level--;
+				used = 0;
+			}
+		}
+
+		/** The thread with which this object is associated. */
+		protected KThread thread;
+
+		/** The level of the thread, 0 being the highest. */
+		private int level = 0;
+
+		/** The time the thread has run at its level. */
+		private long used = 0;
+
+		/** When the thread was last dispatched, or -1 if it is not running. */
+		private long dispatchTime = -1;
+
+		/** How long the thread ran before it last gave up the CPU. */
+		private long lastBurst = 0;
+
+		/** The last boost this thread has caught up with. */
+		private int boost;
+	}
+
+	/** The number of boosts so far. */
+	private int boosts = 0;
+
+	/** When the next boost is due. */
+	private long nextBoost = boostInterval;
+}
@@ -2,7 +2,6 @@ package nachos.threads;
 
 import nachos.machine.*;
 
-import java.util.TreeSet;
 import java.util.HashSet;
 import java.util.Iterator;
 
@@ -126,7 +125,11 @@ public class PriorityScheduler extends Scheduler {
 	}
 
 	/**
-	 * A <tt>ThreadQueue</tt> that sorts threads by priority.
+	 * A <tt>ThreadQueue</tt> that sorts threads by priority. Waiting threads
+	 * are kept in one FIFO list per priority level, and a bitmap records which
+	 * levels are occupied, so the next thread is found without looking at any
+	 * of the others. A thread is filed under its effective priority, and is
+	 * moved to another level when that changes.
 	 */
 	protected class PriorityQueue extends ThreadQueue {
 		PriorityQueue(boolean transferPriority) {
@@ -143,10 +146,27 @@ public class PriorityScheduler extends Scheduler {
 			getThreadState(thread).acquire(this);
 		}
 
+		public boolean remove(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+			return getThreadState(thread).stopWaiting(this);
+		}
+
 		public KThread nextThread() {
 			Lib.assertTrue(Machine.interrupt().disabled());
-			// implement me
-			return null;
+
+			ThreadState state = pickNextThread();
+			if (state == null) {
+				if (holder != null)
+					holder.release(this);
+
+				return null;
+			}
+
+			remove(state);
+			state.waitingOn = null;
+			state.acquire(this);
+
+			return state.thread;
 		}
 
 		/**
@@ -156,13 +176,69 @@ public class PriorityScheduler extends Scheduler {
 		 * @return the next thread that <tt>nextThread()</tt> would return.
 		 */
 		protected ThreadState pickNextThread() {
-			// implement me
-			return null;
+			if (occupied == 0)
+				return null;
+
+			return first[Integer.numberOfTrailingZeros(occupied)];
+		}
+
+		/**
+		 * Return the highest effective priority of any waiting thread.
+		 * 
+		 * @return the highest effective priority, or <tt>priorityMinimum</tt>
+		 * if no thread is waiting.
+		 */
+		protected int maxPriority() {
+			if (occupied == 0)
+				return priorityMinimum;
+
+			return priorityMaximum - Integer.numberOfTrailingZeros(occupied);
 		}
 
 		public void print() {
 			Lib.assertTrue(Machine.interrupt().disabled());
-			// implement me (if you want)
+
+			for (int level = 0; level < first.length; level++) {
+				for (ThreadState state = first[level]; state != null; state = state.next)
+					System.out.print(state.thread + " ");
+			}
+		}
+
+		/**
+		 * Append a thread to the list for its effective priority.
+		 */
+		void add(ThreadState state) {
+			int level = priorityMaximum - state.effectivePriority;
+
+			state.previous = last[level];
+			state.next = null;
+			if (last[level] == null)
+				first[level] = state;
+			else
+				last[level].next = state;
+			last[level] = state;
+
+			occupied |= 1 << level;
+		}
+
+		/**
+		 * Unlink a thread from the list for its effective priority.
+		 */
+		void remove(ThreadState state) {
+			int level = priorityMaximum - state.effectivePriority;
+
+			if (state.previous == null)
+				first[level] = state.next;
+			else
+				state.previous.next = state.next;
+			if (state.next == null)
+				last[level] = state.previous;
+			else
+				state.next.previous = state.previous;
+			state.previous = state.next = null;
+
+			if (first[level] == null)
+				occupied &= ~(1 << level);
 		}
 
 		/**
@@ -170,6 +246,21 @@ public class PriorityScheduler extends Scheduler {
 		 * threads to the owning thread.
 		 */
 		public boolean transferPriority;
+
+		/**
+		 * The thread that last acquired this queue, if it transfers priority.
+		 */
+		ThreadState holder = null;
+
+		/**
+		 * The first and last waiting threads at each priority, highest priority
+		 * first.
+		 */
+		private ThreadState[] first = new ThreadState[priorityMaximum + 1];
+		private ThreadState[] last = new ThreadState[priorityMaximum + 1];
+
+		/** Bit <i>k</i> is set if any thread waits at priority max-<i>k</i>. */
+		private int occupied = 0;
 	}
 
 	/**
@@ -177,6 +268,14 @@ public class PriorityScheduler extends Scheduler {
 	 * priority, its effective priority, any objects it owns, and the queue it's
 	 * waiting for, if any.
 	 * 
+	 * <p>
+	 * The effective priority is cached, and only recomputed when something it
+	 * depends on changes: the thread's own priority, or the highest priority
+	 * waiting in a queue the thread holds. When it does change, the change is
+	 * passed on to the holder of the queue the thread waits in, and so on down
+	 * the chain, stopping as soon as a holder's effective priority stays the
+	 * same.
+	 * 
 	 * @see nachos.threads.KThread#schedulingState
 	 */
 	protected class ThreadState {
@@ -207,8 +306,7 @@ public class PriorityScheduler extends Scheduler {
 		 * @return the effective priority of the associated thread.
 		 */
 		public int getEffectivePriority() {
-			// implement me
-			return priority;
+			return effectivePriority;
 		}
 
 		/**
@@ -222,7 +320,7 @@ public class PriorityScheduler extends Scheduler {
 
 			this.priority = priority;
 
-			// implement me
+			updateEffectivePriority();
 		}
 
 		/**
@@ -238,7 +336,33 @@ public class PriorityScheduler extends Scheduler {
 		 * @see nachos.threads.ThreadQueue#waitForAccess
 		 */
 		public void waitForAccess(PriorityQueue waitQueue) {
-			// implement me
+			Lib.assertTrue(waitingOn == null);
+
+			waitingOn = waitQueue;
+			waitQueue.add(this);
+
+			if (waitQueue.holder != null)
+				waitQueue.holder.updateEffectivePriority();
+		}
+
+		/**
+		 * Called when the associated thread stops waiting in <tt>waitQueue</tt>
+		 * without acquiring it, so that it stops donating to its holder.
+		 * 
+		 * @param waitQueue the queue the thread may be waiting in.
+		 * @return <tt>true</tt> if the thread was waiting in it.
+		 */
+		boolean stopWaiting(PriorityQueue waitQueue) {
+			if (waitingOn != waitQueue)
+				return false;
+
+			waitQueue.remove(this);
+			waitingOn = null;
+
+			if (waitQueue.holder != null)
+				waitQueue.holder.updateEffectivePriority();
+
+			return true;
 		}
 
 		/**
@@ -252,7 +376,57 @@ public class PriorityScheduler extends Scheduler {
 		 * @see nachos.threads.ThreadQueue#nextThread
 		 */
 		public void acquire(PriorityQueue waitQueue) {
-			// implement me
+			if (!waitQueue.transferPriority)
+				return;
+
+			if (waitQueue.holder != null)
+				waitQueue.holder.release(waitQueue);
+
+			waitQueue.holder = this;
+			owned.add(waitQueue);
+
+			updateEffectivePriority();
+		}
+
+		/**
+		 * Called when the associated thread no longer holds
+		 * <tt>waitQueue</tt>, so that the threads waiting in it stop donating
+		 * to it.
+		 */
+		void release(PriorityQueue waitQueue) {
+			Lib.assertTrue(waitQueue.holder == this);
+
+			waitQueue.holder = null;
+			owned.remove(waitQueue);
+
+			updateEffectivePriority();
+		}
+
+		/**
+		 * Recompute the effective priority of the associated thread, and
+		 * propagate any change along the chain of queue holders.
+		 */
+		void updateEffectivePriority() {
+			for (ThreadState state = this; state != null;) {
+				int effective = state.priority;
+				for (Iterator<PriorityQueue> i = state.owned.iterator(); i.hasNext();)
+					effective = Math.max(effective, i.next().maxPriority());
+
+				if (effective == state.effectivePriority)
+					return;
+
+				PriorityQueue queue = state.waitingOn;
+				if (queue == null) {
+					state.effectivePriority = effective;
+					return;
+				}
+
+				queue.remove(state);
+				state.effectivePriority = effective;
+				queue.add(state);
+
+				state = queue.holder;
+			}
 		}
 
 		/** The thread with which this object is associated. */
@@ -260,5 +434,17 @@ public class PriorityScheduler extends Scheduler {
 
 		/** The priority of the associated thread. */
 		protected int priority;
+
+		/** The cached effective priority of the associated thread. */
+		protected int effectivePriority;
+
+		/** The queue this thread waits in, or <tt>null</tt>. */
+		PriorityQueue waitingOn = null;
+
+		/** The queues this thread holds that transfer priority. */
+		HashSet<PriorityQueue> owned = new HashSet<PriorityQueue>();
+
+		/** The neighbours of this thread in its queue's list. */
+		ThreadState previous = null, next = null;
 	}
 }
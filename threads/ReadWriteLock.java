@@ -0,0 +1,260 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.LinkedHashSet;
+
+/**
+ * A <tt>ReadWriteLock</tt> is a lock that can be held either by any number of
+ * <i>readers</i> at once or by a single <i>writer</i>. It suits data that is
+ * read far more often than it is changed:
+ * 
+ * <ul>
+ * <li><tt>acquireRead()</tt>: atomically wait until no thread holds or waits
+ * to hold the lock for writing, and then hold it for reading.
+ * <li><tt>acquireWrite()</tt>: atomically wait until no thread holds the lock,
+ * and then hold it for writing.
+ * <li><tt>downgrade()</tt>: atomically turn holding the lock for writing into
+ * holding it for reading, without letting another writer in between.
+ * </ul>
+ * 
+ * <p>
+ * Writers are preferred: once a writer is waiting, new readers wait behind
+ * it, so that a steady stream of readers cannot keep writers out. When a
+ * writer releases the lock, the next waiting writer gets it; only when no
+ * writer is waiting are all the waiting readers let in together.
+ * 
+ * <p>
+ * Waiting threads are kept in two thread queues, one for readers and one for
+ * writers, so the lock works with every scheduler. If the lock transfers
+ * priority, threads in both queues donate it to the writer, or to one of the
+ * readers, whichever are in their way. There is only one processor, so only
+ * one reader can run at a time anyway; when that reader releases the lock the
+ * donation passes on to another, and the readers get out of the way as soon
+ * as if they had all been boosted. A boosted reader that blocks while holding
+ * the lock keeps the donation.
+ * 
+ * <p>
+ * As with <tt>Lock</tt>, the lock is acquired and released without disabling
+ * interrupts when no thread has to wait.
+ */
+public class ReadWriteLock {
+	/**
+	 * Allocate a new reader-writer lock that transfers priority. The lock
+	 * will initially be <i>free</i>.
+	 */
+	public ReadWriteLock() {
+		this(true);
+	}
+
+	/**
+	 * Allocate a new reader-writer lock. The lock will initially be
+	 * <i>free</i>.
+	 * 
+	 * @param transferPriority <tt>true</tt> if threads waiting for the lock
+	 * should donate priority to the threads holding it.
+	 */
+	public ReadWriteLock(boolean transferPriority) {
+		readQueue = ThreadedKernel.scheduler.newThreadQueue(transferPriority);
+		writeQueue = ThreadedKernel.scheduler.newThreadQueue(transferPriority);
+	}
+
+	/**
+	 * Atomically acquire this lock for reading. The current thread must not
+	 * already hold this lock.
+	 */
+	public void acquireRead() {
+		KThread thread = KThread.currentThread();
+		Lib.assertTrue(!readers.contains(thread) && writer != thread);
+
+		if (writer == null && waitingWriters == 0) {
+			readers.add(thread);
+			return;
+		}
+
+		boolean intStatus = Machine.interrupt().disable();
+
+		queueHolder();
+		waitingReaders++;
+		readQueue.waitForAccess(thread);
+		KThread.sleep();
+
+		Lib.assertTrue(readers.contains(thread));
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Atomically release this lock after reading, allowing a writer to
+	 * acquire it if this was the last reader.
+	 */
+	public void releaseRead() {
+		KThread thread = KThread.currentThread();
+		boolean held = readers.remove(thread);
+		Lib.assertTrue(held);
+
+		/*
+		 * Readers only wait behind a waiting writer, so with no writer
+		 * waiting nobody has to be told.
+		 */
+		if (waitingWriters == 0)
+			return;
+
+		boolean intStatus = Machine.interrupt().disable();
+
+		if (readers.isEmpty())
+			grantWriter();
+		else if (queueHolder == thread)
+			queueHolder();
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Atomically acquire this lock for writing. The current thread must not
+	 * already hold this lock, for reading or writing.
+	 */
+	public void acquireWrite() {
+		KThread thread = KThread.currentThread();
+		Lib.assertTrue(!readers.contains(thread) && writer != thread);
+
+		if (writer == null && readers.isEmpty()) {
+			writer = thread;
+			return;
+		}
+
+		boolean intStatus = Machine.interrupt().disable();
+
+		queueHolder();
+		waitingWriters++;
+		writeQueue.waitForAccess(thread);
+		KThread.sleep();
+
+		Lib.assertTrue(writer == thread);
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Atomically release this lock after writing, handing it to the next
+	 * waiting writer, or else to all the waiting readers.
+	 */
+	public void releaseWrite() {
+		Lib.assertTrue(isWriteHeldByCurrentThread());
+
+		writer = null;
+		if (waitingWriters == 0 && waitingReaders == 0)
+			return;
+
+		boolean intStatus = Machine.interrupt().disable();
+
+		if (waitingWriters > 0)
+			grantWriter();
+		else
+			grantReaders();
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Atomically turn holding this lock for writing into holding it for
+	 * reading. The waiting readers are let in too, unless a writer is
+	 * waiting, in which case it gets the lock when the readers are done.
+	 */
+	public void downgrade() {
+		Lib.assertTrue(isWriteHeldByCurrentThread());
+
+		writer = null;
+		readers.add(KThread.currentThread());
+		if (waitingWriters > 0 || waitingReaders == 0)
+			return;
+
+		boolean intStatus = Machine.interrupt().disable();
+
+		grantReaders();
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Test if the current thread holds this lock for reading.
+	 * 
+	 * @return true if the current thread holds this lock for reading.
+	 */
+	public boolean isReadHeldByCurrentThread() {
+		return readers.contains(KThread.currentThread());
+	}
+
+	/**
+	 * Test if the current thread holds this lock for writing.
+	 * 
+	 * @return true if the current thread holds this lock for writing.
+	 */
+	public boolean isWriteHeldByCurrentThread() {
+		return (writer == KThread.currentThread());
+	}
+
+	/**
+	 * Hand this lock to the first waiting writer. Interrupts must be
+	 * disabled.
+	 */
+	private void grantWriter() {
+		writer = writeQueue.nextThread();
+		waitingWriters--;
+
+		readQueue.acquire(writer);
+		queueHolder = writer;
+
+		writer.ready();
+	}
+
+	/**
+	 * Let all the waiting readers in. Interrupts must be disabled.
+	 */
+	private void grantReaders() {
+		while (waitingReaders > 0) {
+			KThread reader = readQueue.nextThread();
+			waitingReaders--;
+
+			readers.add(reader);
+			reader.ready();
+		}
+
+		queueHolder = null;
+	}
+
+	/**
+	 * Tell both wait queues which thread holds this lock, the writer or else
+	 * any reader, if they do not know already, so that threads waiting in
+	 * them donate priority to it. Interrupts must be disabled.
+	 */
+	private void queueHolder() {
+		KThread holder = (writer != null) ? writer : readers.iterator().next();
+
+		if (queueHolder != holder) {
+			readQueue.acquire(holder);
+			writeQueue.acquire(holder);
+			queueHolder = holder;
+		}
+	}
+
+	/** The thread holding this lock for writing, if any. */
+	private KThread writer = null;
+
+	/** The threads holding this lock for reading. */
+	private LinkedHashSet<KThread> readers = new LinkedHashSet<KThread>();
+
+	/**
+	 * The thread the wait queues were last told holds this lock, or
+	 * <tt>null</tt> if they need to be told again.
+	 */
+	private KThread queueHolder = null;
+
+	private int waitingReaders = 0;
+
+	private int waitingWriters = 0;
+
+	private ThreadQueue readQueue;
+
+	private ThreadQueue writeQueue;
+}
@@ -58,13 +58,23 @@ public class RoundRobinScheduler extends Scheduler {
 
 		/**
 		 * The specified thread has received exclusive access, without using
-		 * <tt>waitForAccess()</tt> or <tt>nextThread()</tt>. Assert that no
-		 * threads are waiting for access.
+		 * <tt>waitForAccess()</tt> or <tt>nextThread()</tt>. Nothing to do,
+		 * since there is no priority to transfer.
 		 */
 		public void acquire(KThread thread) {
 			Lib.assertTrue(Machine.interrupt().disabled());
+		}
+
+		/**
+		 * Remove a thread from anywhere in the queue.
+		 * 
+		 * @param thread the thread to remove.
+		 * @return <tt>true</tt> if the thread was in the queue.
+		 */
+		public boolean remove(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
 
-			Lib.assertTrue(waitQueue.isEmpty());
+			return waitQueue.remove(thread);
 		}
 
 		/**
@@ -151,4 +151,79 @@ public abstract class Scheduler {
 	public boolean decreasePriority() {
 		return false;
 	}
+
+	/**
+	 * Make the specified thread a periodic real-time thread, if this scheduler
+	 * has a real-time class. The thread is released at the start of every
+	 * <i>period</i> ticks, the first starting now, and each time must finish
+	 * at most <i>cost</i> ticks of work within <i>deadline</i> ticks, then call
+	 * <tt>waitForNextPeriod()</tt>. A period of 0 makes the thread an ordinary
+	 * thread again. Must be called with interrupts disabled.
+	 * 
+	 * @param thread the thread to make real-time.
+	 * @param period the ticks between releases, or 0.
+	 * @param deadline the ticks after each release by which the thread must
+	 * finish, no more than <i>period</i>.
+	 * @param cost the most ticks the thread runs each period.
+	 * @return <tt>true</tt> if the thread was admitted, or <tt>false</tt> if
+	 * the scheduler has no real-time class or cannot promise to meet the
+	 * deadlines of all its real-time threads with this one added.
+	 */
+	public boolean setDeadline(KThread thread, long period, long deadline,
+			long cost) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+		return false;
+	}
+
+	/**
+	 * Finish the work of the current real-time thread for this period, and
+	 * sleep until its next release. Returns immediately if the current thread
+	 * is not real-time.
+	 */
+	public void waitForNextPeriod() {
+	}
+
+	/**
+	 * Called by <tt>KThread.ready()</tt>, with interrupts disabled, when the
+	 * specified thread is added to the ready queue.
+	 * 
+	 * @param thread the thread that is ready to run.
+	 */
+	public void threadReady(KThread thread) {
+	}
+
+	/**
+	 * Called by <tt>KThread.restoreState()</tt>, with interrupts disabled,
+	 * when the specified thread starts running. Schedulers that charge threads
+	 * for the time they run start timing them here.
+	 * 
+	 * @param thread the thread that starts running.
+	 */
+	public void threadRunning(KThread thread) {
+	}
+
+	/**
+	 * Called by <tt>KThread.saveState()</tt>, with interrupts disabled, when
+	 * the specified thread stops running.
+	 * 
+	 * @param thread the thread that stops running.
+	 */
+	public void threadStopped(KThread thread) {
+	}
+
+	/**
+	 * Called by <tt>KThread.finish()</tt>, with interrupts disabled, when the
+	 * specified thread finishes.
+	 * 
+	 * @param thread the thread that finishes.
+	 */
+	public void threadFinished(KThread thread) {
+	}
+
+	/**
+	 * Print any statistics kept by this scheduler. Called by
+	 * <tt>ThreadedKernel.terminate()</tt> just before the machine halts.
+	 */
+	public void printStats() {
+	}
 }
@@ -28,7 +28,18 @@ public class Semaphore {
 	 * @param initialValue the initial value of this semaphore.
 	 */
 	public Semaphore(int initialValue) {
+		this(initialValue, true);
+	}
+
+	/**
+	 * Allocate a new semaphore, whose contention statistics are only kept if
+	 * <tt>profiled</tt> is <tt>true</tt>, for semaphores that are only waited
+	 * on once, such as those of condition variables.
+	 */
+	Semaphore(int initialValue, boolean profiled) {
 		value = initialValue;
+		if (profiled)
+			profile = LockProfile.create("Semaphore");
 	}
 
 	/**
@@ -38,14 +49,60 @@ public class Semaphore {
 		boolean intStatus = Machine.interrupt().disable();
 
 		if (value == 0) {
+			long since = Machine.timer().getTime();
+
 			waitQueue.waitForAccess(KThread.currentThread());
+			if (DeadlockDetector.enabled)
+				DeadlockDetector.blocked(this);
 			KThread.sleep();
+			if (DeadlockDetector.enabled)
+				DeadlockDetector.woke();
+
+			if (profile != null)
+				profile.waited(since, true);
 		}
 		else {
 			value--;
+			if (profile != null)
+				profile.acquired();
+		}
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Atomically wait at least the specified number of ticks for this
+	 * semaphore to become non-zero, giving up on the first timer interrupt
+	 * after that, and decrement it if it did.
+	 * 
+	 * @param ticks the minimum number of clock ticks to wait, or 0 not to
+	 * wait.
+	 * @return <tt>true</tt> if the semaphore was decremented.
+	 */
+	public boolean P(long ticks) {
+		boolean intStatus = Machine.interrupt().disable();
+		boolean decremented = true;
+
+		if (value > 0) {
+			value--;
+			if (profile != null)
+				profile.acquired();
+		}
+		else if (ticks > 0) {
+			long since = Machine.timer().getTime();
+
+			waitQueue.waitForAccess(KThread.currentThread());
+			decremented = ThreadedKernel.alarm.waitInQueue(waitQueue, ticks);
+
+			if (profile != null)
+				profile.waited(since, decremented);
+		}
+		else {
+			decremented = false;
 		}
 
 		Machine.interrupt().restore(intStatus);
+		return decremented;
 	}
 
 	/**
@@ -103,4 +160,7 @@ public class Semaphore {
 
 	private ThreadQueue waitQueue = ThreadedKernel.scheduler
 			.newThreadQueue(false);
+
+	/** The contention statistics of this semaphore, if they are kept. */
+	private LockProfile profile = null;
 }
@@ -0,0 +1,527 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A scheduler that gives threads proportional shares of the CPU
+ * deterministically, using stride scheduling.
+ * 
+ * <p>
+ * Like a lottery scheduler, a stride scheduler associates a number of tickets
+ * with each thread, set and read through the same <tt>setPriority()</tt> and
+ * <tt>getPriority()</tt> methods as the priority scheduler. Each thread has a
+ * stride, inversely proportional to its tickets, and a pass. The thread with
+ * the lowest pass is dequeued next, and its pass is advanced by its stride.
+ * Over any interval, each thread is then chosen a number of times proportional
+ * to its tickets, give or take one, without the variance of a lottery. Every
+ * queue works this way, so a thread is charged a stride whenever it is
+ * dequeued, whether from the ready queue or from a lock's queue.
+ * 
+ * <p>
+ * Tickets are transferred through locks and joins, and add up, as in the
+ * lottery scheduler.
+ */
+public class StrideScheduler extends Scheduler {
+	/**
+	 * Allocate a new stride scheduler.
+	 */
+	public StrideScheduler() {
+	}
+
+	/**
+	 * Allocate a new stride thread queue.
+	 * 
+	 * @param transferPriority <tt>true</tt> if this queue should transfer
+	 * tickets from waiting threads to the owning thread.
+	 * @return a new stride thread queue.
+	 */
+	public ThreadQueue newThreadQueue(boolean transferPriority) {
+		return new StrideQueue(transferPriority);
+	}
+
+	public int getPriority(KThread thread) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		return getThreadState(thread).tickets;
+	}
+
+	public int getEffectivePriority(KThread thread) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		return (int) Math.min(getThreadState(thread).effectiveTickets,
+				ticketsMaximum);
+	}
+
+	public void setPriority(KThread thread, int priority) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		Lib.assertTrue(priority >= ticketsMinimum
+				&& priority <= ticketsMaximum);
+
+		getThreadState(thread).setTickets(priority);
+	}
+
+	public boolean increasePriority() {
+		boolean intStatus = Machine.interrupt().disable();
+		boolean ret = true;
+
+		KThread thread = KThread.currentThread();
+
+		int priority = getPriority(thread);
+		if (priority == ticketsMaximum)
+			ret = false;
+		else
+			setPriority(thread, priority + 1);
+
+		Machine.interrupt().restore(intStatus);
+		return ret;
+	}
+
+	public boolean decreasePriority() {
+		boolean intStatus = Machine.interrupt().disable();
+		boolean ret = true;
+
+		KThread thread = KThread.currentThread();
+
+		int priority = getPriority(thread);
+		if (priority == ticketsMinimum)
+			ret = false;
+		else
+			setPriority(thread, priority - 1);
+
+		Machine.interrupt().restore(intStatus);
+		return ret;
+	}
+
+	/**
+	 * The default number of tickets for a new thread.
+	 */
+	public static final int ticketsDefault = 1;
+
+	/**
+	 * The minimum number of tickets that a thread can have.
+	 */
+	public static final int ticketsMinimum = 1;
+
+	/**
+	 * The maximum number of tickets that a thread can have.
+	 */
+	public static final int ticketsMaximum = Integer.MAX_VALUE;
+
+	/**
+	 * The stride of a thread with one ticket. Strides of threads with more
+	 * tickets are this divided by their tickets, so it is large enough for
+	 * those to stay distinct. Passes therefore wrap around after about eight
+	 * million strides of a one-ticket thread, so they are only ever compared
+	 * by the sign of their difference, which is right as long as the passes
+	 * compared are less than 2<sup>63</sup> apart.
+	 */
+	public static final long stride1 = 1L << 40;
+
+	/**
+	 * Return the scheduling state of the specified thread.
+	 * 
+	 * @param thread the thread whose scheduling state to return.
+	 * @return the scheduling state of the specified thread.
+	 */
+	protected ThreadState getThreadState(KThread thread) {
+		if (thread.schedulingState == null)
+			thread.schedulingState = new ThreadState(thread);
+
+		return (ThreadState) thread.schedulingState;
+	}
+
+	/**
+	 * A <tt>ThreadQueue</tt> that dequeues the thread with the lowest pass.
+	 * The waiting threads are kept in a binary min-heap, with the passes and
+	 * arrival numbers (which break ties first-come first-served) in primitive
+	 * arrays beside it.
+	 */
+	protected class StrideQueue extends ThreadQueue {
+		StrideQueue(boolean transferPriority) {
+			this.transferPriority = transferPriority;
+		}
+
+		public void waitForAccess(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+			getThreadState(thread).waitForAccess(this);
+		}
+
+		public void acquire(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+			getThreadState(thread).acquire(this);
+		}
+
+		public boolean remove(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			ThreadState state = getThreadState(thread);
+			if (state.waitingOn != this)
+				return false;
+
+			state.stopWaiting(this);
+			return true;
+		}
+
+		public KThread nextThread() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			ThreadState state = pickNextThread();
+			if (state == null) {
+				if (holder != null)
+					holder.release(this);
+
+				return null;
+			}
+
+			state.leave(this);
+			state.acquire(this);
+
+			return state.thread;
+		}
+
+		/**
+		 * Return the next thread that <tt>nextThread()</tt> would return,
+		 * without modifying the state of this queue.
+		 * 
+		 * @return the next thread that <tt>nextThread()</tt> would return.
+		 */
+		protected ThreadState pickNextThread() {
+			return (size == 0) ? null : states[0];
+		}
+
+		public void print() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			for (int i = 0; i < size; i++)
+				System.out.print(states[i].thread + " (" + passes[i] + ") ");
+		}
+
+		/**
+		 * Add a thread to the heap, under its pass.
+		 */
+		void add(ThreadState state) {
+			if (size == states.length) {
+				states = copyOf(states, size * 2);
+				passes = copyOf(passes, size * 2);
+				arrivals = copyOf(arrivals, size * 2);
+			}
+
+			int i = size++;
+			states[i] = state;
+			passes[i] = state.pass;
+			arrivals[i] = nextArrival++;
+			state.index = i;
+
+			siftUp(i);
+		}
+
+		/**
+		 * Remove a thread from the heap.
+		 */
+		void remove(ThreadState state) {
+			int i = state.index;
+			state.index = -1;
+
+			size--;
+			if (i != size) {
+				ThreadState moved = states[size];
+				move(size, i);
+				states[size] = null;
+
+				siftDown(i);
+				siftUp(moved.index);
+			}
+			else {
+				states[size] = null;
+			}
+		}
+
+		/**
+		 * Restore the heap order after the pass of a waiting thread has
+		 * changed.
+		 */
+		void update(ThreadState state) {
+			int i = state.index;
+			passes[i] = state.pass;
+
+			siftUp(i);
+			siftDown(state.index);
+		}
+
+		private boolean before(int i, int j) {
+			long difference = passes[i] - passes[j];
+			return difference < 0
+					|| (difference == 0 && arrivals[i] < arrivals[j]);
+		}
+
+		private void siftUp(int i) {
+			while (i > 0) {
+				int parent = (i - 1) / 2;
+				if (!before(i, parent))
+					break;
+
+				swap(i, parent);
+				i = parent;
+			}
+		}
+
+		private void siftDown(int i) {
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size)
+					break;
+
+				if (child + 1 < size && before(child + 1, child))
+					child++;
+				if (!before(child, i))
+					break;
+
+				swap(i, child);
+				i = child;
+			}
+		}
+
+		private void swap(int i, int j) {
+			ThreadState state = states[i];
+			long pass = passes[i];
+			long arrival = arrivals[i];
+
+			move(j, i);
+
+			states[j] = state;
+			passes[j] = pass;
+			arrivals[j] = arrival;
+			state.index = j;
+		}
+
+		private void move(int from, int to) {
+			states[to] = states[from];
+			passes[to] = passes[from];
+			arrivals[to] = arrivals[from];
+			states[to].index = to;
+		}
+
+		/**
+		 * <tt>true</tt> if this queue should transfer tickets from waiting
+		 * threads to the owning thread.
+		 */
+		public boolean transferPriority;
+
+		/**
+		 * The thread that last acquired this queue, if it transfers tickets.
+		 */
+		ThreadState holder = null;
+
+		/** The sum of the effective tickets of the waiting threads. */
+		long totalTickets = 0;
+
+		/**
+		 * The pass of the thread most recently dequeued. A thread that starts
+		 * waiting with a lower pass is moved up to it, so that it cannot
+		 * claim the time it spent elsewhere.
+		 */
+		long currentPass = 0;
+
+		private ThreadState[] states = new ThreadState[initialSize];
+		private long[] passes = new long[initialSize];
+		private long[] arrivals = new long[initialSize];
+		private int size = 0;
+		private long nextArrival = 0;
+	}
+
+	private static ThreadState[] copyOf(ThreadState[] array, int length) {
+		ThreadState[] copy = new ThreadState[length];
+		System.arraycopy(array, 0, copy, 0, array.length);
+		return copy;
+	}
+
+	private static long[] copyOf(long[] array, int length) {
+		long[] copy = new long[length];
+		System.arraycopy(array, 0, copy, 0, array.length);
+		return copy;
+	}
+
+	/**
+	 * The scheduling state of a thread in a stride scheduler. The effective
+	 * tickets of a thread are its own tickets plus the effective tickets of
+	 * every thread waiting in a queue it holds, and are kept up to date by
+	 * passing changes down the chain of queue holders.
+	 * 
+	 * @see nachos.threads.KThread#schedulingState
+	 */
+	protected class ThreadState {
+		/**
+		 * Allocate a new <tt>ThreadState</tt> object and associate it with the
+		 * specified thread.
+		 * 
+		 * @param thread the thread this state belongs to.
+		 */
+		public ThreadState(KThread thread) {
+			this.thread = thread;
+		}
+
+		/**
+		 * Set the tickets of the associated thread to the specified value.
+		 * 
+		 * @param tickets the new number of tickets.
+		 */
+		void setTickets(int tickets) {
+			long delta = (long) tickets - this.tickets;
+			this.tickets = tickets;
+
+			addTickets(delta);
+		}
+
+		/**
+		 * Return the stride of the associated thread.
+		 */
+		long stride() {
+			return Math.max(1, stride1 / effectiveTickets);
+		}
+
+		/**
+		 * Called when the associated thread starts waiting in
+		 * <tt>waitQueue</tt>.
+		 */
+		void waitForAccess(StrideQueue waitQueue) {
+			Lib.assertTrue(waitingOn == null);
+
+			if (pass - waitQueue.currentPass < 0)
+				pass = waitQueue.currentPass;
+
+			waitingOn = waitQueue;
+			waitQueue.add(this);
+			queuedTickets = effectiveTickets;
+			waitQueue.totalTickets += queuedTickets;
+
+			if (waitQueue.transferPriority && waitQueue.holder != null)
+				waitQueue.holder.addTickets(queuedTickets);
+		}
+
+		/**
+		 * Called when the associated thread is dequeued from
+		 * <tt>waitQueue</tt>. Its pass advances by one stride.
+		 */
+		void leave(StrideQueue waitQueue) {
+			waitQueue.currentPass = pass;
+			stopWaiting(waitQueue);
+
+			pass += stride();
+		}
+
+		/**
+		 * Called when the associated thread stops waiting in
+		 * <tt>waitQueue</tt>, whether it was dequeued or gave up. It stops
+		 * transferring its tickets to the holder.
+		 */
+		void stopWaiting(StrideQueue waitQueue) {
+			Lib.assertTrue(waitingOn == waitQueue);
+
+			waitQueue.remove(this);
+			waitQueue.totalTickets -= queuedTickets;
+			waitingOn = null;
+
+			if (waitQueue.transferPriority && waitQueue.holder != null)
+				waitQueue.holder.addTickets(-queuedTickets);
+		}
+
+		/**
+		 * Called when the associated thread has acquired access to whatever is
+		 * guarded by <tt>waitQueue</tt>. It takes over the tickets of the
+		 * threads still waiting from the previous holder.
+		 */
+		void acquire(StrideQueue waitQueue) {
+			if (!waitQueue.transferPriority)
+				return;
+
+			if (waitQueue.holder != null)
+				waitQueue.holder.release(waitQueue);
+
+			waitQueue.holder = this;
+			addTickets(waitQueue.totalTickets);
+		}
+
+		/**
+		 * Called when the associated thread no longer holds
+		 * <tt>waitQueue</tt>.
+		 */
+		void release(StrideQueue waitQueue) {
+			Lib.assertTrue(waitQueue.holder == this);
+
+			waitQueue.holder = null;
+			addTickets(-waitQueue.totalTickets);
+		}
+
+		/**
+		 * Add <tt>delta</tt> effective tickets to the associated thread, and
+		 * to each thread down the chain of queue holders it waits on. A
+		 * waiting thread keeps its place relative to the queue's current
+		 * pass, scaled by how much its stride changed. In case of a deadlock,
+		 * the walk stops before passing the change on to a thread it has
+		 * already visited, as in the lottery scheduler, and the tickets the
+		 * last thread counts for in its queue are kept separately.
+		 */
+		void addTickets(long delta) {
+			if (delta == 0)
+				return;
+
+			int walk = ++walks;
+
+			ThreadState state = this;
+			do {
+				long oldStride = state.stride();
+				state.effectiveTickets += delta;
+				state.lastWalk = walk;
+
+				StrideQueue queue = state.waitingOn;
+				if (queue == null)
+					return;
+
+				long remaining = state.pass - queue.currentPass;
+				if (remaining > 0) {
+					state.pass = queue.currentPass
+							+ (long) ((double) remaining * state.stride() / oldStride);
+					queue.update(state);
+				}
+				ThreadState holder = queue.transferPriority ? queue.holder : null;
+				if (holder != null && holder.lastWalk == walk)
+					return;
+
+				state.queuedTickets += delta;
+				queue.totalTickets += delta;
+
+				state = holder;
+			} while (state != null);
+		}
+
+		/** The thread with which this object is associated. */
+		protected KThread thread;
+
+		/** The tickets of the associated thread. */
+		protected int tickets = ticketsDefault;
+
+		/** The effective tickets of the associated thread. */
+		protected long effectiveTickets = ticketsDefault;
+
+		/** The pass of the associated thread. */
+		long pass = 0;
+
+		/** The queue this thread waits in, or <tt>null</tt>. */
+		StrideQueue waitingOn = null;
+
+		/** The index of this thread in the heap of <tt>waitingOn</tt>. */
+		int index = -1;
+
+		/** The tickets this thread counts for in <tt>waitingOn</tt>. */
+		long queuedTickets = 0;
+
+		/** The last <tt>addTickets()</tt> walk that passed this thread. */
+		int lastWalk = 0;
+	}
+
+	/** The number of <tt>addTickets()</tt> walks so far. */
+	private int walks = 0;
+
+	private static final int initialSize = 4;
+}
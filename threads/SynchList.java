@@ -1,35 +1,89 @@
 package nachos.threads;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.Collection;
 import nachos.machine.*;
 import nachos.threads.*;
 
 /**
  * A synchronized queue.
+ * 
+ * <p>
+ * A queue may be bounded, holding at most a given number of objects. What
+ * <tt>add()</tt> does when a bounded queue is full depends on its policy: it
+ * waits for room (<tt>policyBlock</tt>), drops the oldest object in the queue
+ * to make room (<tt>policyDropOldest</tt>), or drops the new object
+ * (<tt>policyDropNewest</tt>). The queue counts the objects it drops and
+ * records the most objects it ever held, to show how close it came to its
+ * bound.
  */
 public class SynchList {
 	/**
-	 * Allocate a new synchronized queue.
+	 * Allocate a new synchronized queue with no bound.
 	 */
 	public SynchList() {
-		list = new LinkedList<Object>();
+		this(Integer.MAX_VALUE, policyBlock);
+	}
+
+	/**
+	 * Allocate a new bounded synchronized queue.
+	 * 
+	 * @param capacity the most objects the queue holds.
+	 * @param policy what <tt>add()</tt> does when the queue is full; one of
+	 * <tt>policyBlock</tt>, <tt>policyDropOldest</tt> and
+	 * <tt>policyDropNewest</tt>.
+	 */
+	public SynchList(int capacity, int policy) {
+		Lib.assertTrue(capacity > 0);
+		Lib.assertTrue(policy == policyBlock || policy == policyDropOldest
+				|| policy == policyDropNewest);
+
+		this.capacity = capacity;
+		this.policy = policy;
+
+		list = new ArrayDeque<Object>(Math.min(capacity, initialCapacity));
 		lock = new Lock();
 		listEmpty = new Condition(lock);
+		listFull = new Condition(lock);
 	}
 
 	/**
 	 * Add the specified object to the end of the queue. If another thread is
-	 * waiting in <tt>removeFirst()</tt>, it is woken up.
+	 * waiting in <tt>removeFirst()</tt> or <tt>drainTo()</tt>, it is woken
+	 * up. If the queue is full, wait for room, or drop an object, according
+	 * to the policy of the queue.
 	 * 
 	 * @param o the object to add. Must not be <tt>null</tt>.
+	 * @return <tt>false</tt> if <tt>o</tt> was dropped because the queue was
+	 * full.
 	 */
-	public void add(Object o) {
+	public boolean add(Object o) {
 		Lib.assertTrue(o != null);
 
 		lock.acquire();
-		list.add(o);
+
+		if (list.size() == capacity) {
+			if (policy == policyDropNewest) {
+				dropped++;
+				lock.release();
+				return false;
+			}
+			else if (policy == policyDropOldest) {
+				list.removeFirst();
+				dropped++;
+			}
+			else {
+				while (list.size() == capacity)
+					listFull.sleep();
+			}
+		}
+
+		list.addLast(o);
+		highWaterMark = Math.max(highWaterMark, list.size());
 		listEmpty.wake();
+
 		lock.release();
+		return true;
 	}
 
 	/**
@@ -45,11 +99,67 @@ public class SynchList {
 		while (list.isEmpty())
 			listEmpty.sleep();
 		o = list.removeFirst();
+		listFull.wake();
 		lock.release();
 
 		return o;
 	}
 
+	/**
+	 * Remove up to <tt>max</tt> objects from the front of the queue, in
+	 * order, and add them to the specified collection, blocking until the
+	 * queue is non-empty if necessary. The lock is only acquired once, so
+	 * this is cheaper than calling <tt>removeFirst()</tt> for each object.
+	 * 
+	 * @param c the collection to add the objects to.
+	 * @param max the most objects to remove. Must be positive.
+	 * @return the number of objects removed, at least 1.
+	 */
+	public int drainTo(Collection<Object> c, int max) {
+		Lib.assertTrue(max > 0);
+
+		lock.acquire();
+		while (list.isEmpty())
+			listEmpty.sleep();
+
+		int n = Math.min(max, list.size());
+		for (int i = 0; i < n; i++)
+			c.add(list.removeFirst());
+
+		listFull.wakeAll();
+		lock.release();
+
+		return n;
+	}
+
+	/**
+	 * Return the most objects this queue has held at once.
+	 * 
+	 * @return the high-water mark of this queue.
+	 */
+	public int getHighWaterMark() {
+		return highWaterMark;
+	}
+
+	/**
+	 * Return the number of objects this queue has dropped because it was
+	 * full.
+	 * 
+	 * @return the number of objects dropped.
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+
+	/** Wait for room when the queue is full. */
+	public static final int policyBlock = 0;
+
+	/** Drop the oldest object in the queue when it is full. */
+	public static final int policyDropOldest = 1;
+
+	/** Drop the object being added when the queue is full. */
+	public static final int policyDropNewest = 2;
+
 	private static class PingTest implements Runnable {
 		PingTest(SynchList ping, SynchList pong) {
 			this.ping = ping;
@@ -82,9 +192,21 @@ public class SynchList {
 		}
 	}
 
-	private LinkedList<Object> list;
+	private ArrayDeque<Object> list;
+
+	private int capacity;
+
+	private int policy;
+
+	private int highWaterMark = 0;
+
+	private long dropped = 0;
 
 	private Lock lock;
 
 	private Condition listEmpty;
+
+	private Condition listFull;
+
+	private static final int initialCapacity = 16;
 }
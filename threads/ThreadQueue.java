@@ -82,6 +82,12 @@ public abstract class ThreadQueue {
 	 * call this method.
 	 * 
 	 * <p>
+	 * It may also be called while other threads are waiting, to pass access
+	 * on to a thread that is not waiting in this queue, for example from one
+	 * reader of a <tt>ReadWriteLock</tt> to another. If this queue transfers
+	 * priority, the waiting threads then donate to that thread instead.
+	 * 
+	 * <p>
 	 * This method should not be called for a thread returned from
 	 * <tt>nextThread()</tt>.
 	 * 
@@ -90,6 +96,17 @@ public abstract class ThreadQueue {
 	 */
 	public abstract void acquire(KThread thread);
 
+	/**
+	 * Take the specified thread out of this queue, if it is waiting in it,
+	 * because it has stopped waiting for access; for example, because a timed
+	 * wait has run out. If this queue transfers priority, the thread stops
+	 * donating priority to the thread that has access.
+	 * 
+	 * @param thread the thread to remove.
+	 * @return <tt>true</tt> if the thread was waiting in this queue.
+	 */
+	public abstract boolean remove(KThread thread);
+
 	/**
 	 * Print out all the threads waiting for access, in no particular order.
 	 */
@@ -1,7 +1,13 @@
 package nachos.threads;
 
 import nachos.ag.BoatGrader;
+import nachos.machine.Lib;
 import nachos.machine.Machine;
+import nachos.machine.Stats;
+import nachos.machine.TCB;
+
+import java.util.ArrayList;
+import java.util.HashMap;
 
 
 public class ThreadTests {
@@ -136,6 +142,276 @@ public class ThreadTests {
 			System.out.println(ticks + " ticks later, I'm done waiting!");
 		}
 	}
+	public static void alarmTest2(int sleepers)
+	{
+		/*
+		 * Puts the specified number of threads to sleep for random times of
+		 * up to 100000 ticks, checks that none wakes up earlier than asked,
+		 * and prints the latest any got to run after its time, which also
+		 * counts waiting in the ready queue.
+		 */
+		System.out.println("Alarm TEST #2: Start");
+		final long[] worst = new long[1];
+		KThread[] threads = new KThread[sleepers];
+		for (int i = 0; i < sleepers; i++)
+		{
+			final long ticks = 1 + Lib.random(100000);
+			threads[i] = new KThread(new Runnable() {
+				public void run() {
+					long start = Machine.timer().getTime();
+					ThreadedKernel.alarm.waitUntil(ticks);
+					long late = Machine.timer().getTime() - (start + ticks);
+					Lib.assertTrue(late >= 0, "woke up early");
+					worst[0] = Math.max(worst[0], late);
+				}
+			});
+			threads[i].fork();
+		}
+		for (int i = 0; i < sleepers; i++)
+			threads[i].join();
+		System.out.println("  latest wakeup: " + worst[0] + " ticks");
+		System.out.println("Alarm TEST #2: Finished");
+	}
+	public static void timingWheelTest()
+	{
+		/*
+		 * Schedules a million timeouts on a timing wheel of its own, at
+		 * random delays of up to 2^24 units, mostly short ones, and cancels
+		 * nine in ten of them. Then it drives the wheel through simulated
+		 * time by calling advance() directly, and checks that exactly the
+		 * others fire, each within a unit of its due time. Prints what
+		 * scheduling and cancelling cost.
+		 */
+		System.out.println("Timing wheel TEST: Start");
+		final int count = 1000000;
+		final long granularity = TimingWheel.granularity;
+		final long[] clock = new long[1];
+		final int[] fired = new int[1];
+
+		boolean intStatus = Machine.interrupt().disable();
+		long now = Machine.timer().getTime();
+		TimingWheel wheel = new TimingWheel();
+
+		TimingWheel.Timeout[] timeouts = new TimingWheel.Timeout[count];
+		long[] delays = new long[count];
+		long maxDelay = 0;
+		for (int i = 0; i < count; i++)
+		{
+			delays[i] = (long) (Lib.random() * (granularity << Lib.random(25)));
+			maxDelay = Math.max(maxDelay, delays[i]);
+
+			final long due = now + delays[i];
+			timeouts[i] = new TimingWheel.Timeout(new Runnable() {
+				public void run() {
+					Lib.assertTrue(clock[0] >= due
+							&& clock[0] < due + 2 * granularity,
+							"timeout fired at the wrong time");
+					fired[0]++;
+				}
+			});
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++)
+			wheel.schedule(timeouts[i], delays[i]);
+		long scheduled = System.nanoTime();
+		int kept = 0;
+		for (int i = 0; i < count; i++)
+		{
+			if (i % 10 == 0)
+				kept++;
+			else
+				Lib.assertTrue(timeouts[i].cancel());
+		}
+		long cancelled = System.nanoTime();
+		Lib.assertTrue(wheel.size() == kept);
+
+		for (clock[0] = now; wheel.size() > 0; clock[0] += granularity)
+		{
+			Lib.assertTrue(clock[0] <= now + maxDelay + 2 * granularity,
+					"timeouts left over");
+			wheel.advance(clock[0]);
+		}
+		long finished = System.nanoTime();
+		Machine.interrupt().restore(intStatus);
+
+		Lib.assertTrue(fired[0] == kept);
+		System.out.println("  " + (scheduled - start) / count + " ns per schedule, "
+				+ (cancelled - scheduled) / count + " ns per cancel, "
+				+ (finished - cancelled) / 1000000 + " ms to fire " + kept);
+		System.out.println("Timing wheel TEST: Finished");
+	}
+	public static void timedWaitTest()
+	{
+		/*
+		 * Checks that timed P(), tryAcquire() and sleep() give up after their
+		 * time, no earlier, and succeed when woken in time; that a thread
+		 * that gave up on a lock stops donating to its holder; and that the
+		 * queue it left still hands the lock to the next waiter.
+		 */
+		System.out.println("Timed wait TEST: Start");
+		final long wait = 2000;
+
+		Semaphore semaphore = new Semaphore(0);
+		long start = Machine.timer().getTime();
+		Lib.assertTrue(!semaphore.P(wait), "P() with nothing to take");
+		Lib.assertTrue(Machine.timer().getTime() - start >= wait, "gave up early");
+
+		final Semaphore signal = new Semaphore(0);
+		new KThread(new Runnable() {
+			public void run() {
+				signal.V();
+			}
+		}).fork();
+		Lib.assertTrue(signal.P(10 * wait), "P() missed a V()");
+
+		Machine.interrupt().disable();
+		ThreadQueue queue = ThreadedKernel.scheduler.newThreadQueue(false);
+		queue.waitForAccess(KThread.currentThread());
+		Lib.assertTrue(!ThreadedKernel.alarm.waitInQueue(queue, -1)
+				&& queue.nextThread() == null,
+				"waitInQueue() with a negative time");
+		Machine.interrupt().enable();
+
+		final Lock lock = new Lock();
+		final boolean[] results = new boolean[2];
+		lock.acquire();
+		KThread impatient = new KThread(new Runnable() {
+			public void run() {
+				Lib.assertTrue(!lock.tryAcquire(), "tryAcquire() of a held lock");
+				Lib.assertTrue(!lock.tryAcquire(-1),
+						"tryAcquire() of a held lock with a negative time");
+				results[0] = lock.tryAcquire(wait);
+			}
+		}).setName("impatient");
+		KThread patient = new KThread(new Runnable() {
+			public void run() {
+				lock.acquire();
+				results[1] = true;
+				lock.release();
+			}
+		}).setName("patient");
+
+		Machine.interrupt().disable();
+		int priority = ThreadedKernel.scheduler.getPriority();
+		ThreadedKernel.scheduler.setPriority(impatient, priority + 1);
+		Machine.interrupt().enable();
+
+		impatient.fork();
+		impatient.join();
+		Lib.assertTrue(!results[0], "tryAcquire() of a held lock");
+
+		Machine.interrupt().disable();
+		Lib.assertTrue(ThreadedKernel.scheduler.getEffectivePriority() == priority,
+				"donation kept after a timeout");
+		Machine.interrupt().enable();
+
+		patient.fork();
+		KThread.yield();
+		lock.release();
+		patient.join();
+		Lib.assertTrue(results[1], "lock not handed on after a timeout");
+
+		final Condition2 condition = new Condition2(lock);
+		lock.acquire();
+		start = Machine.timer().getTime();
+		Lib.assertTrue(!condition.sleep(wait), "sleep() with no wake()");
+		Lib.assertTrue(lock.isHeldByCurrentThread(), "lock not reacquired");
+		Lib.assertTrue(Machine.timer().getTime() - start >= wait, "gave up early");
+
+		new KThread(new Runnable() {
+			public void run() {
+				lock.acquire();
+				condition.wake();
+				lock.release();
+			}
+		}).fork();
+		Lib.assertTrue(condition.sleep(10 * wait), "sleep() missed a wake()");
+		lock.release();
+
+		System.out.println("Timed wait TEST: Finished");
+	}
+	public static void readWriteLockTest()
+	{
+		/*
+		 * Checks that readers share the lock, that a waiting writer keeps new
+		 * readers out and gets the lock when the readers are done, that the
+		 * priority of a waiting writer is donated to a reader, and that a
+		 * downgrade lets the waiting readers in.
+		 */
+		System.out.println("Read-write lock TEST: Start");
+		final ReadWriteLock lock = new ReadWriteLock();
+		final StringBuffer log = new StringBuffer();
+		final Semaphore started = new Semaphore(0), inside = new Semaphore(0);
+
+		KThread reader1 = new KThread(new Runnable() {
+			public void run() {
+				lock.acquireRead();
+				log.append("r1 ");
+				lock.releaseRead();
+			}
+		}).setName("reader1");
+		KThread writer = new KThread(new Runnable() {
+			public void run() {
+				Machine.interrupt().disable();
+				started.V();
+				lock.acquireWrite();
+				Machine.interrupt().enable();
+				log.append("w ");
+				lock.downgrade();
+				Lib.assertTrue(inside.P(10000), "downgrade kept readers out");
+				log.append("d ");
+				lock.releaseRead();
+			}
+		}).setName("writer");
+		KThread reader2 = new KThread(new Runnable() {
+			public void run() {
+				lock.acquireRead();
+				log.append("r2 ");
+				inside.V();
+				lock.releaseRead();
+			}
+		}).setName("reader2");
+
+		Machine.interrupt().disable();
+		int priority = ThreadedKernel.scheduler.getPriority();
+		ThreadedKernel.scheduler.setPriority(writer, priority + 1);
+		Machine.interrupt().enable();
+
+		lock.acquireRead();
+		reader1.fork();
+		reader1.join();
+		Lib.assertTrue(log.toString().equals("r1 "), "readers kept apart");
+
+		writer.fork();
+		started.P();
+		reader2.fork();
+		for (int i = 0; i < 10; i++)
+			KThread.yield();
+		Lib.assertTrue(log.toString().equals("r1 "),
+				"reader let in past a waiting writer");
+
+		if (ThreadedKernel.scheduler instanceof PriorityScheduler)
+		{
+			Machine.interrupt().disable();
+			Lib.assertTrue(ThreadedKernel.scheduler.getEffectivePriority() > priority,
+					"writer did not donate to the reader");
+			Machine.interrupt().enable();
+		}
+
+		lock.releaseRead();
+		writer.join();
+		reader2.join();
+		Lib.assertTrue(log.toString().equals("r1 w r2 d "), "wrong order: " + log);
+
+		Machine.interrupt().disable();
+		Lib.assertTrue(ThreadedKernel.scheduler.getEffectivePriority() == priority,
+				"donation kept after the writer got the lock");
+		Machine.interrupt().enable();
+
+		System.out.println("Read-write lock TEST: Finished");
+	}
+
 	public static void communicatorTest1()
 	{
 		/*
@@ -172,6 +448,211 @@ public class ThreadTests {
 		new KThread(new Listener(comm)).fork();
 		
 	}
+	public static void channelTest()
+	{
+		/*
+		 * Checks that a rendezvous channel holds the sender until a receiver
+		 * takes the word, that a buffered channel takes words without a
+		 * receiver until it is full, and that batches sent and received by
+		 * several threads at once arrive in order and whole.
+		 */
+		System.out.println("Channel TEST: Start");
+		final IntChannel rendezvous = new IntChannel(0);
+		final boolean[] returned = new boolean[1];
+		KThread speaker = new KThread(new Runnable() {
+			public void run() {
+				rendezvous.send(42);
+				returned[0] = true;
+			}
+		}).setName("speaker");
+		speaker.fork();
+		for (int i = 0; i < 10; i++)
+			KThread.yield();
+		Lib.assertTrue(!returned[0], "send() returned before a receive()");
+		Lib.assertTrue(rendezvous.receive() == 42, "wrong word");
+		speaker.join();
+		Lib.assertTrue(returned[0], "send() did not return");
+
+		final int capacity = 8, total = 1000;
+		final IntChannel buffered = new IntChannel(capacity);
+		int[] words = new int[total];
+		for (int i = 0; i < total; i++)
+			words[i] = i;
+		buffered.sendAll(words, 0, capacity);
+
+		final int[] got = new int[total];
+		KThread consumer = new KThread(new Runnable() {
+			public void run() {
+				for (int i = 0; i < 10; i++)
+					got[i] = buffered.receive();
+				buffered.receiveInto(got, 10, total - 10);
+			}
+		}).setName("consumer");
+		consumer.fork();
+		for (int i = capacity; i < total; i += 7)
+			buffered.sendAll(words, i, Math.min(7, total - i));
+		consumer.join();
+		for (int i = 0; i < total; i++)
+			Lib.assertTrue(got[i] == i, "words out of order");
+
+		final IntChannel shared = new IntChannel(16);
+		final int producers = 4, consumers = 3, each = 3000;
+		final long[] sums = new long[consumers];
+		KThread[] threads = new KThread[producers + consumers];
+		for (int p = 0; p < producers; p++)
+		{
+			final int first = p * each;
+			threads[p] = new KThread(new Runnable() {
+				public void run() {
+					int[] batch = new int[100];
+					for (int i = 0; i < each; i += batch.length)
+					{
+						for (int j = 0; j < batch.length; j++)
+							batch[j] = first + i + j;
+						shared.sendAll(batch);
+					}
+				}
+			});
+		}
+		for (int c = 0; c < consumers; c++)
+		{
+			final int index = c;
+			threads[producers + c] = new KThread(new Runnable() {
+				public void run() {
+					int[] batch = new int[producers * each / consumers];
+					shared.receiveInto(batch);
+					for (int i = 0; i < batch.length; i++)
+						sums[index] += batch[i];
+				}
+			});
+		}
+		for (int i = 0; i < threads.length; i++)
+			threads[i].fork();
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join();
+
+		long sum = 0, expected = (long) producers * each * (producers * each - 1) / 2;
+		for (int c = 0; c < consumers; c++)
+			sum += sums[c];
+		Lib.assertTrue(sum == expected, "words lost or repeated");
+
+		System.out.println("Channel TEST: Finished");
+	}
+
+	public static void synchListTest()
+	{
+		/*
+		 * Checks what each policy does when a bounded queue is full, that
+		 * drainTo() takes objects in order and wakes a blocked adder, and
+		 * that the high-water mark and drop count are kept.
+		 */
+		System.out.println("SynchList TEST: Start");
+		SynchList newest = new SynchList(3, SynchList.policyDropNewest);
+		SynchList oldest = new SynchList(3, SynchList.policyDropOldest);
+		for (int i = 0; i < 5; i++)
+		{
+			Lib.assertTrue(newest.add(Integer.valueOf(i)) == (i < 3), "wrong drop");
+			Lib.assertTrue(oldest.add(Integer.valueOf(i)), "dropped the new object");
+		}
+		Lib.assertTrue(newest.getDropped() == 2 && oldest.getDropped() == 2,
+				"drops not counted");
+		Lib.assertTrue(newest.getHighWaterMark() == 3, "wrong high-water mark");
+		Lib.assertTrue(((Integer) newest.removeFirst()).intValue() == 0
+				&& ((Integer) oldest.removeFirst()).intValue() == 2,
+				"dropped the wrong object");
+
+		final SynchList blocking = new SynchList(4, SynchList.policyBlock);
+		final int total = 100;
+		KThread producer = new KThread(new Runnable() {
+			public void run() {
+				for (int i = 0; i < total; i++)
+					blocking.add(Integer.valueOf(i));
+			}
+		}).setName("producer");
+		producer.fork();
+
+		ArrayList<Object> batch = new ArrayList<Object>();
+		int next = 0;
+		while (next < total)
+		{
+			batch.clear();
+			int n = blocking.drainTo(batch, 3);
+			Lib.assertTrue(n == batch.size() && n >= 1 && n <= 3,
+					"wrong batch size");
+			for (int i = 0; i < n; i++)
+				Lib.assertTrue(((Integer) batch.get(i)).intValue() == next++,
+						"objects out of order");
+		}
+		producer.join();
+		Lib.assertTrue(blocking.getHighWaterMark() == 4
+				&& blocking.getDropped() == 0, "bound not kept");
+
+		System.out.println("SynchList TEST: Finished");
+	}
+
+	public static void lockProfileTest()
+	{
+		/*
+		 * Profiles a lock that two threads fight over, checks that it was
+		 * acquired twice, once after a wait of at least 1000 ticks, and held
+		 * for some time, and prints the report.
+		 */
+		System.out.println("LockProfile TEST: Start");
+		boolean enabled = LockProfile.enabled;
+		LockProfile.enabled = true;
+		final Lock lock = new Lock();
+
+		lock.acquire();
+		KThread waiter = new KThread(new Runnable() {
+			public void run() {
+				lock.acquire();
+				lock.release();
+			}
+		}).setName("waiter");
+		waiter.fork();
+		KThread.yield();
+		ThreadedKernel.alarm.waitUntil(1000);
+		lock.release();
+		waiter.join();
+
+		LockProfile profile = lock.getProfile();
+		Lib.assertTrue(profile.getAcquisitions() == 2, "wrong acquisitions");
+		Lib.assertTrue(profile.getContended() == 1, "wrong contended count");
+		Lib.assertTrue(profile.getTotalWait() >= 1000, "wait too short");
+		Lib.assertTrue(profile.getTotalHold() > 0, "no hold time");
+
+		LockProfile.print();
+		LockProfile.enabled = enabled;
+		System.out.println("LockProfile TEST: Finished");
+	}
+
+	public static void deadlockTest()
+	{
+		/*
+		 * Deadlocks two threads on two locks. With the nachos.conf key
+		 * ThreadedKernel.deadlockDetector = true, the detector should print
+		 * the cycle and terminate Nachos when the second thread blocks.
+		 */
+		Lib.assertTrue(DeadlockDetector.enabled, "deadlock detector is off");
+		System.out.println("Deadlock TEST: Start");
+		final Lock first = new Lock();
+		final Lock second = new Lock();
+		final Semaphore started = new Semaphore(0);
+
+		first.acquire();
+		new KThread(new Runnable() {
+			public void run() {
+				second.acquire();
+				started.V();
+				first.acquire();
+			}
+		}).setName("other").fork();
+
+		started.P();
+		second.acquire();
+		Lib.assertNotReached("deadlock not detected");
+	}
+
 	public static void conditionTest1()
 	{
 		/*
@@ -270,6 +751,522 @@ public class ThreadTests {
 		KThread.yield();
 		System.out.println("Priority TEST #1: END");
 	}
+	public static void priorityChainTest()
+	{
+		/*
+		 * Builds a chain of threads, each holding one lock and waiting for
+		 * the lock of the one before it, with the main thread holding the
+		 * first lock. A priority change at the far end has to reach the main
+		 * thread, and should cost time in proportion to the chain length.
+		 * Needs the PriorityScheduler.
+		 */
+		System.out.println("Priority chain TEST: Start");
+		final int length = Math.min(TCB.maxThreads() - 10, 200);
+		final int changes = 100000;
+
+		final Lock[] locks = new Lock[length + 1];
+		for (int i = 0; i <= length; i++)
+			locks[i] = new Lock();
+
+		locks[0].acquire();
+		KThread[] threads = new KThread[length];
+		for (int i = 1; i <= length; i++)
+		{
+			final int which = i;
+			threads[i - 1] = new KThread(new Runnable() {
+				public void run() {
+					locks[which].acquire();
+					locks[which - 1].acquire();
+					locks[which - 1].release();
+					locks[which].release();
+				}
+			});
+			threads[i - 1].fork();
+			KThread.yield();
+		}
+
+		KThread last = threads[length - 1];
+		Machine.interrupt().disable();
+		ThreadedKernel.scheduler.setPriority(last, 7);
+		Lib.assertTrue(ThreadedKernel.scheduler.getEffectivePriority() == 7);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < changes; i++)
+			ThreadedKernel.scheduler.setPriority(last, (i & 1) == 0 ? 2 : 7);
+		long elapsed = System.nanoTime() - start;
+		Lib.assertTrue(ThreadedKernel.scheduler.getEffectivePriority() == 7);
+
+		ThreadedKernel.scheduler.setPriority(last, 1);
+		Lib.assertTrue(ThreadedKernel.scheduler.getEffectivePriority() == 1);
+		Machine.interrupt().enable();
+
+		System.out.println("  chain of " + length + ": "
+				+ elapsed / changes + " ns per donated priority change");
+
+		locks[0].release();
+		for (int i = 0; i < length; i++)
+			threads[i].join();
+		System.out.println("Priority chain TEST: Finished");
+	}
+
+	public static void lotteryFairnessTest()
+	{
+		/*
+		 * Holds a million lotteries among a few thousand threads with
+		 * different ticket counts, putting each winner straight back, and
+		 * checks that each thread wins in proportion to its tickets with a
+		 * chi-square test. The threads are never forked; they only wait in
+		 * the queue.
+		 */
+		System.out.println("Lottery fairness TEST: Start");
+		int waiters = 2000;
+		int draws = 1000000;
+
+		LotteryScheduler scheduler = new LotteryScheduler();
+		KThread[] threads = new KThread[waiters];
+		HashMap<KThread, Integer> index = new HashMap<KThread, Integer>();
+		long[] wins = new long[waiters];
+		long totalTickets = 0;
+
+		boolean intStatus = Machine.interrupt().disable();
+		ThreadQueue queue = scheduler.newThreadQueue(false);
+		for (int i = 0; i < waiters; i++)
+		{
+			threads[i] = new KThread();
+			index.put(threads[i], i);
+			scheduler.setPriority(threads[i], 1 + i % 10);
+			totalTickets += 1 + i % 10;
+			queue.waitForAccess(threads[i]);
+		}
+
+		for (int i = 0; i < draws; i++)
+		{
+			KThread winner = queue.nextThread();
+			wins[index.get(winner)]++;
+			queue.waitForAccess(winner);
+		}
+		Machine.interrupt().restore(intStatus);
+
+		double chiSquare = 0;
+		for (int i = 0; i < waiters; i++)
+		{
+			double expected = (double) draws * (1 + i % 10) / totalTickets;
+			chiSquare += (wins[i] - expected) * (wins[i] - expected) / expected;
+		}
+
+		// mean is the degrees of freedom, standard deviation sqrt(2 dof)
+		int freedom = waiters - 1;
+		double limit = freedom + 5 * Math.sqrt(2 * freedom);
+		System.out.println("  chi-square " + (long) chiSquare + " for "
+				+ freedom + " degrees of freedom (limit " + (long) limit + ")");
+		Lib.assertTrue(chiSquare < limit);
+		System.out.println("Lottery fairness TEST: Finished");
+	}
+
+	public static void lotteryBenchmark()
+	{
+		/*
+		 * Measures how fast a lottery queue with different numbers of waiting
+		 * threads can draw a winner and take it back.
+		 */
+		System.out.println("Lottery benchmark:");
+		int draws = 1000000;
+		int[] sizes = { 10, 1000, 100000 };
+
+		LotteryScheduler scheduler = new LotteryScheduler();
+		boolean intStatus = Machine.interrupt().disable();
+		for (int s = 0; s < sizes.length; s++)
+		{
+			ThreadQueue queue = scheduler.newThreadQueue(false);
+			for (int i = 0; i < sizes[s]; i++)
+			{
+				KThread thread = new KThread();
+				scheduler.setPriority(thread, 1 + i % 100);
+				queue.waitForAccess(thread);
+			}
+
+			long start = System.nanoTime();
+			for (int i = 0; i < draws; i++)
+				queue.waitForAccess(queue.nextThread());
+			long elapsed = System.nanoTime() - start;
+
+			System.out.println("  " + sizes[s] + " waiting: "
+					+ perSecond(draws, elapsed) + " draws/s");
+		}
+		Machine.interrupt().restore(intStatus);
+	}
+
+	public static void lockBenchmark()
+	{
+		/*
+		 * Measures how fast the current thread can acquire and release a lock
+		 * that no other thread wants, and how much simulated time each pair
+		 * takes.
+		 */
+		System.out.println("Lock benchmark:");
+		int pairs = 1000000;
+		Lock lock = new Lock();
+
+		long ticks = Machine.timer().getTime();
+		long start = System.nanoTime();
+		for (int i = 0; i < pairs; i++)
+		{
+			lock.acquire();
+			lock.release();
+		}
+		long elapsed = System.nanoTime() - start;
+		ticks = Machine.timer().getTime() - ticks;
+
+		System.out.println("  uncontended: " + perSecond(pairs, elapsed)
+				+ " pairs/s, " + (double) ticks / pairs + " ticks/pair");
+	}
+
+	public static void readWriteLockBenchmark()
+	{
+		/*
+		 * Runs groups of readers that each hold the lock while they sleep, as
+		 * if waiting for a disk, first with a read-write lock and then with a
+		 * plain lock, and prints how long each group takes in simulated time
+		 * and how many readers held the lock at once. Then measures how fast
+		 * a reader can acquire and release a lock no writer wants.
+		 */
+		System.out.println("Read-write lock benchmark:");
+		final long work = 20000;
+		int[] sizes = { 1, 10, 100, Math.min(TCB.maxThreads() - 10, 1000) };
+
+		for (int s = 0; s < sizes.length; s++)
+		{
+			final ReadWriteLock rwLock = new ReadWriteLock();
+			final Lock lock = new Lock();
+			final int[] holding = new int[1], mostHolding = new int[1];
+			long[] ticks = new long[2];
+
+			for (int pass = 0; pass < 2; pass++)
+			{
+				final boolean shared = (pass == 0);
+				KThread[] readers = new KThread[sizes[s]];
+				long start = Machine.timer().getTime();
+				for (int i = 0; i < readers.length; i++)
+				{
+					readers[i] = new KThread(new Runnable() {
+						public void run() {
+							if (shared)
+								rwLock.acquireRead();
+							else
+								lock.acquire();
+
+							holding[0]++;
+							mostHolding[0] = Math.max(mostHolding[0], holding[0]);
+							ThreadedKernel.alarm.waitUntil(work);
+							holding[0]--;
+
+							if (shared)
+								rwLock.releaseRead();
+							else
+								lock.release();
+						}
+					});
+					readers[i].fork();
+				}
+				for (int i = 0; i < readers.length; i++)
+					readers[i].join();
+				ticks[pass] = Machine.timer().getTime() - start;
+
+				if (shared)
+					Lib.assertTrue(mostHolding[0] == readers.length,
+							"readers kept apart");
+			}
+
+			System.out.println("  " + sizes[s] + " readers: read-write lock "
+					+ ticks[0] + " ticks, " + mostHolding[0]
+					+ " at once; lock " + ticks[1] + " ticks");
+		}
+
+		int pairs = 1000000;
+		ReadWriteLock lock = new ReadWriteLock();
+		long start = System.nanoTime();
+		for (int i = 0; i < pairs; i++)
+		{
+			lock.acquireRead();
+			lock.releaseRead();
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println("  uncontended: " + perSecond(pairs, elapsed)
+				+ " read pairs/s");
+	}
+
+	public static void channelBenchmark()
+	{
+		/*
+		 * Passes words from a producer thread to a consumer thread through a
+		 * communicator, a buffered channel one word at a time, and a buffered
+		 * channel in batches, and prints how many words each moves per second
+		 * and how much simulated time each word takes.
+		 */
+		System.out.println("Channel benchmark:");
+		final int capacity = 1024, batch = 256;
+
+		for (int mode = 0; mode < 3; mode++)
+		{
+			final int words = (mode == 0) ? 20000 : (mode == 1) ? 1000000 : 10000000;
+			final int which = mode;
+			final Communicator communicator = new Communicator();
+			final IntChannel channel = new IntChannel(capacity);
+			final long[] sum = new long[1];
+
+			KThread consumer = new KThread(new Runnable() {
+				public void run() {
+					int[] buffer = new int[batch];
+					for (int i = 0; i < words; i += batch)
+					{
+						if (which == 2)
+						{
+							channel.receiveInto(buffer);
+							for (int j = 0; j < batch; j++)
+								sum[0] += buffer[j];
+						}
+						else
+						{
+							for (int j = 0; j < batch; j++)
+								sum[0] += (which == 0) ? communicator.listen()
+										: channel.receive();
+						}
+					}
+				}
+			}).setName("consumer");
+
+			long ticks = Machine.timer().getTime();
+			long start = System.nanoTime();
+			consumer.fork();
+			int[] buffer = new int[batch];
+			for (int i = 0; i < words; i += batch)
+			{
+				if (which == 2)
+				{
+					for (int j = 0; j < batch; j++)
+						buffer[j] = i + j;
+					channel.sendAll(buffer);
+				}
+				else
+				{
+					for (int j = 0; j < batch; j++)
+					{
+						if (which == 0)
+							communicator.speak(i + j);
+						else
+							channel.send(i + j);
+					}
+				}
+			}
+			consumer.join();
+			long elapsed = System.nanoTime() - start;
+			ticks = Machine.timer().getTime() - ticks;
+
+			long count = (words + batch - 1) / batch * batch;
+			Lib.assertTrue(sum[0] == count * (count - 1) / 2, "words lost");
+
+			String name = (which == 0) ? "communicator"
+					: (which == 1) ? "channel, single words"
+					: "channel, batches of " + batch;
+			System.out.println("  " + name + ": " + perSecond(count, elapsed)
+					+ " words/s, " + (double) ticks / count + " ticks/word");
+		}
+	}
+
+	public static void shareTest()
+	{
+		/*
+		 * Runs four threads with 1, 2, 3 and 4 tickets (set as priorities)
+		 * that each count how often they get to run, yielding in between,
+		 * and prints the share each one got and how far it is from its share
+		 * of the tickets. Run it with each scheduler to compare them. The
+		 * main thread waits on a semaphore rather than joining, since a join
+		 * would donate its tickets.
+		 */
+		System.out.println("Share TEST: Start");
+		final int runs = 100000;
+		final int[] counts = new int[4];
+		final int[] total = new int[1];
+		final Semaphore finished = new Semaphore(0);
+
+		KThread[] threads = new KThread[counts.length];
+		for (int i = 0; i < counts.length; i++)
+		{
+			final int which = i;
+			threads[i] = new KThread(new Runnable() {
+				public void run() {
+					while (total[0] < runs)
+					{
+						counts[which]++;
+						total[0]++;
+						KThread.yield();
+					}
+					finished.V();
+				}
+			});
+			Machine.interrupt().disable();
+			ThreadedKernel.scheduler.setPriority(threads[i], i + 1);
+			Machine.interrupt().enable();
+		}
+
+		for (int i = 0; i < counts.length; i++)
+			threads[i].fork();
+		for (int i = 0; i < counts.length; i++)
+			finished.P();
+
+		double worst = 0;
+		for (int i = 0; i < counts.length; i++)
+		{
+			double ideal = runs * (i + 1) / 10.0;
+			worst = Math.max(worst, Math.abs(counts[i] - ideal));
+			System.out.println("  " + (i + 1) + " tickets: " + counts[i]
+					+ " runs (ideal " + (long) ideal + ")");
+		}
+		System.out.println("  largest error: " + (long) worst + " runs");
+		System.out.println("Share TEST: Finished");
+	}
+
+	public static void deadlineTest()
+	{
+		/*
+		 * Runs three periodic real-time threads, with a total utilization of
+		 * 0.7, for ten periods each next to a best-effort thread that never
+		 * blocks, and checks that a fourth thread that would take the
+		 * utilization over 1 is turned away. Missed deadlines are counted in
+		 * the statistics printed at halt. Run it with a scheduler that has a
+		 * real-time class.
+		 */
+		System.out.println("Deadline TEST: Start");
+		final long[][] tasks = { { 4000, 1000 }, { 6000, 1500 }, { 10000, 2000 } };
+		final int jobs = 10;
+		final boolean[] done = new boolean[1];
+		final Semaphore finished = new Semaphore(0);
+
+		KThread hog = new KThread(new Runnable() {
+			public void run() {
+				while (!done[0])
+					work(Stats.TimerTicks);
+			}
+		}).setName("hog");
+		hog.fork();
+
+		for (int i = 0; i < tasks.length; i++)
+		{
+			final long period = tasks[i][0], cost = tasks[i][1];
+			KThread thread = new KThread(new Runnable() {
+				public void run() {
+					for (int job = 0; job < jobs; job++)
+					{
+						work(cost);
+						ThreadedKernel.scheduler.waitForNextPeriod();
+					}
+					finished.V();
+				}
+			}).setName("period " + period);
+
+			Machine.interrupt().disable();
+			boolean admitted = ThreadedKernel.scheduler.setDeadline(thread,
+					period, period, cost);
+			Machine.interrupt().enable();
+
+			if (!admitted)
+			{
+				System.out.println("  no real-time class, skipping");
+				done[0] = true;
+				hog.join();
+				return;
+			}
+			thread.fork();
+		}
+
+		Machine.interrupt().disable();
+		boolean admitted = ThreadedKernel.scheduler.setDeadline(
+				KThread.currentThread(), 5000, 5000, 2000);
+		Machine.interrupt().enable();
+		Lib.assertTrue(!admitted, "utilization over 1 was admitted");
+
+		for (int i = 0; i < tasks.length; i++)
+			finished.P();
+		done[0] = true;
+		hog.join();
+
+		System.out.println("Deadline TEST: Finished");
+	}
+
+	/**
+	 * Keep the CPU busy for at least the specified number of ticks of running
+	 * time, not counting time spent switched out.
+	 */
+	private static void work(long ticks)
+	{
+		while (ticks > 0)
+		{
+			long start = Machine.timer().getTime();
+			Machine.interrupt().disable();
+			Machine.interrupt().enable();
+			long end = Machine.timer().getTime();
+			ticks -= (end - start > Stats.KernelTick) ? Stats.KernelTick
+					: end - start;
+		}
+	}
+
+	public static void tcbBenchmark()
+	{
+		/*
+		 * Measures how fast threads can be forked and joined, and how fast
+		 * two threads can switch back and forth, with the TCB implementation
+		 * selected by TCB.virtualThreads. Run it with each setting to compare.
+		 */
+		int total = 20000;
+		int batch = Math.min(TCB.maxThreads() - 10, 10000);
+		int switches = 100000;
+
+		System.out.println("TCB benchmark: "
+				+ (TCB.usingVirtualThreads() ? "virtual" : "platform")
+				+ " threads, " + batch + " at a time");
+
+		long start = System.nanoTime();
+		for (int forked = 0; forked < total; forked += batch)
+		{
+			KThread[] threads = new KThread[batch];
+			for (int i = 0; i < batch; i++)
+			{
+				threads[i] = new KThread(new Runnable() {
+					public void run() {
+					}
+				});
+				threads[i].fork();
+			}
+			for (int i = 0; i < batch; i++)
+				threads[i].join();
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println("  fork/join: " + perSecond(total, elapsed)
+				+ " threads/s");
+
+		final int rounds = switches / 2;
+		KThread other = new KThread(new Runnable() {
+			public void run() {
+				for (int i = 0; i < rounds; i++)
+					KThread.yield();
+			}
+		});
+		other.fork();
+
+		start = System.nanoTime();
+		for (int i = 0; i < rounds; i++)
+			KThread.yield();
+		elapsed = System.nanoTime() - start;
+		other.join();
+		System.out.println("  context switches: "
+				+ perSecond(switches, elapsed) + " switches/s");
+	}
+
+	private static long perSecond(long count, long nanoseconds)
+	{
+		return count * 1000000000L / Math.max(1, nanoseconds);
+	}
+
 	public static void boatTest(int children, int adults)
 	{
 		/*
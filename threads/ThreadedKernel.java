@@ -16,8 +16,16 @@ public class ThreadedKernel extends Kernel {
 	/**
 	 * Initialize this kernel. Creates a scheduler, the first thread, and an
 	 * alarm, and enables interrupts. Creates a file system if necessary.
+	 * Turns on lock profiling if the <tt>nachos.conf</tt> key
+	 * <tt>ThreadedKernel.lockProfile</tt> is <tt>true</tt>, and deadlock
+	 * detection if <tt>ThreadedKernel.deadlockDetector</tt> is.
 	 */
 	public void initialize(String[] args) {
+		LockProfile.enabled = Config.getBoolean("ThreadedKernel.lockProfile",
+				false);
+		DeadlockDetector.enabled = Config.getBoolean(
+				"ThreadedKernel.deadlockDetector", false);
+
 		// set scheduler
 		String schedulerName = Config.getString("ThreadedKernel.scheduler");
 		scheduler = (Scheduler) Lib.constructObject(schedulerName);
@@ -51,6 +59,7 @@ public class ThreadedKernel extends Kernel {
 		//Condition2.selfTest();
 		//Alarm.selfTest();
 		//Communicator.selfTest();
+		//Interrupt.selfTest();
 		Semaphore.selfTest();
 		SynchList.selfTest();
 		if (Machine.bank() != null) {
@@ -69,6 +78,9 @@ public class ThreadedKernel extends Kernel {
 	 * Terminate this kernel. Never returns.
 	 */
 	public void terminate() {
+		scheduler.printStats();
+		LockProfile.print();
+
 		Machine.halt();
 	}
 
@@ -0,0 +1,290 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A hierarchical timing wheel, for timeouts that are usually cancelled before
+ * they expire, like retransmission timers and watchdogs. The wheel is driven
+ * by the alarm, which calls <tt>advance()</tt> on every timer interrupt, so
+ * timeouts expire with a granularity of <tt>Stats.TimerTicks</tt>.
+ * 
+ * <p>
+ * Time on the wheel is counted in units of the granularity. The wheel has
+ * <tt>levels</tt> levels of <tt>slotsPerLevel</tt> slots each. A timeout due
+ * within one turn of the first level is kept in the slot for its unit; one
+ * due later is kept in the lowest level whose turn covers it, where each slot
+ * spans a whole turn of the level below. Whenever a level completes a turn,
+ * the next slot of the level above is emptied and its timeouts are cascaded
+ * down to the levels below. Each slot is a circular doubly-linked list
+ * through the timeouts themselves, so scheduling and cancelling take constant
+ * time and allocate nothing, and the wheel only looks at the slots that come
+ * due.
+ * 
+ * <p>
+ * Handlers run in the timer interrupt handler, with interrupts disabled, so
+ * they must not block. They may wake threads, and schedule or cancel
+ * timeouts.
+ */
+public class TimingWheel {
+	/**
+	 * Allocate a new timing wheel, starting at the current time.
+	 */
+	public TimingWheel() {
+		for (int level = 0; level < levels; level++) {
+			for (int slot = 0; slot < slotsPerLevel; slot++)
+				slots[level][slot] = new Timeout(null);
+		}
+
+		current = Machine.timer().getTime() / granularity + 1;
+	}
+
+	/**
+	 * Schedule a new timeout.
+	 * 
+	 * @param ticks the least number of ticks from now until the handler runs.
+	 * @param handler the handler to run when the timeout expires.
+	 * @return a handle for the new timeout, which can cancel it.
+	 */
+	public Timeout schedule(long ticks, Runnable handler) {
+		Timeout timeout = new Timeout(handler);
+		schedule(timeout, ticks);
+		return timeout;
+	}
+
+	/**
+	 * Schedule a timeout again, after it has expired or been cancelled, so
+	 * that the same handle can be reused without allocating a new one. If it
+	 * is still pending, it is rescheduled.
+	 * 
+	 * @param timeout the timeout to schedule.
+	 * @param ticks the least number of ticks from now until the handler runs.
+	 */
+	public void schedule(Timeout timeout, long ticks) {
+		Lib.assertTrue(ticks >= 0);
+
+		boolean intStatus = Machine.interrupt().disable();
+
+		if (timeout.pending()) {
+			timeout.unlink();
+			timeout.wheel.size--;
+		}
+
+		long time = Machine.timer().getTime() + ticks;
+		timeout.expires = (time + granularity - 1) / granularity;
+		timeout.wheel = this;
+		insert(timeout);
+		size++;
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Return the number of timeouts that have been scheduled and have
+	 * neither expired nor been cancelled.
+	 * 
+	 * @return the number of pending timeouts.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Run the handlers of all timeouts due by the specified time. Called by
+	 * the alarm with interrupts disabled.
+	 * 
+	 * @param time the current time.
+	 */
+	void advance(long time) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		long target = time / granularity;
+
+		if (size == 0 && current <= target) {
+			current = target + 1;
+			return;
+		}
+
+		while (current <= target) {
+			long unit = current;
+			int slot = (int) (unit & slotMask);
+
+			for (int level = 1; slot == 0 && level < levels; level++) {
+				slot = (int) ((unit >> (level * slotBits)) & slotMask);
+				cascade(slots[level][slot]);
+			}
+
+			expiring.splice(slots[0][(int) (unit & slotMask)]);
+
+			/*
+			 * Move on before running the handlers, so that timeouts they
+			 * schedule go into the next unit rather than the one being
+			 * emptied.
+			 */
+			current = unit + 1;
+
+			while (expiring.next != expiring) {
+				Timeout timeout = expiring.next;
+				timeout.unlink();
+				size--;
+
+				timeout.handler.run();
+			}
+		}
+	}
+
+	/**
+	 * Move the timeouts of a slot down to where they belong now.
+	 */
+	private void cascade(Timeout head) {
+		cascading.splice(head);
+
+		while (cascading.next != cascading) {
+			Timeout timeout = cascading.next;
+			timeout.unlink();
+			insert(timeout);
+		}
+	}
+
+	/**
+	 * Add a timeout to the slot of the lowest level whose turn covers its
+	 * expiry. A timeout due after the top level has turned once is kept in
+	 * the furthest slot of the top level, and placed again when that slot is
+	 * cascaded.
+	 */
+	private void insert(Timeout timeout) {
+		long expires = Math.max(timeout.expires, current);
+		long delta = expires - current;
+
+		int level = 0;
+		while (level < levels - 1 && delta >= 1L << ((level + 1) * slotBits))
+			level++;
+
+		if (delta >= 1L << (levels * slotBits))
+			expires = current + (1L << (levels * slotBits)) - 1;
+
+		int slot = (int) ((expires >> (level * slotBits)) & slotMask);
+		slots[level][slot].append(timeout);
+	}
+
+	/**
+	 * A timeout scheduled on a timing wheel. The handle is also the node that
+	 * links the timeout into its slot.
+	 */
+	public static class Timeout {
+		/**
+		 * Allocate a new timeout that is not scheduled. Schedule it with
+		 * <tt>TimingWheel.schedule(Timeout, long)</tt>.
+		 * 
+		 * @param handler the handler to run when the timeout expires.
+		 */
+		public Timeout(Runnable handler) {
+			this.handler = handler;
+			next = previous = this;
+		}
+
+		/**
+		 * Cancel this timeout, if it is pending, so that its handler will not
+		 * run.
+		 * 
+		 * @return <tt>true</tt> if the timeout was pending.
+		 */
+		public boolean cancel() {
+			boolean intStatus = Machine.interrupt().disable();
+
+			boolean wasPending = pending();
+			if (wasPending) {
+				unlink();
+				wheel.size--;
+			}
+
+			Machine.interrupt().restore(intStatus);
+			return wasPending;
+		}
+
+		/**
+		 * Test whether this timeout has been scheduled, and has neither
+		 * expired nor been cancelled.
+		 * 
+		 * @return <tt>true</tt> if this timeout is pending.
+		 */
+		public boolean pending() {
+			return next != this;
+		}
+
+		/**
+		 * Add a timeout to the end of the list this slot head starts.
+		 */
+		void append(Timeout timeout) {
+			timeout.previous = previous;
+			timeout.next = this;
+			previous.next = timeout;
+			previous = timeout;
+		}
+
+		/**
+		 * Take this timeout out of its list.
+		 */
+		void unlink() {
+			previous.next = next;
+			next.previous = previous;
+			next = previous = this;
+		}
+
+		/**
+		 * Take over the whole list another slot head starts, leaving that one
+		 * empty. This head must be empty.
+		 */
+		void splice(Timeout head) {
+			if (head.next == head)
+				return;
+
+			next = head.next;
+			previous = head.previous;
+			next.previous = this;
+			previous.next = this;
+			head.next = head.previous = head;
+		}
+
+		private Runnable handler;
+
+		/** The unit the timeout expires in. */
+		private long expires;
+
+		/** The wheel the timeout was last scheduled on. */
+		private TimingWheel wheel;
+
+		private Timeout next, previous;
+	}
+
+	/**
+	 * The number of ticks in a unit of time on the wheel.
+	 */
+	public static final long granularity = Stats.TimerTicks;
+
+	private static final int slotBits = 6;
+
+	private static final int slotsPerLevel = 1 << slotBits;
+
+	private static final long slotMask = slotsPerLevel - 1;
+
+	/**
+	 * The number of levels. Together they cover 2^36 units, over 10^13
+	 * ticks; later timeouts are placed again each turn of the top level.
+	 */
+	private static final int levels = 6;
+
+	/** The head of the list in each slot of each level. */
+	private Timeout[][] slots = new Timeout[levels][slotsPerLevel];
+
+	/** The head of the list of timeouts whose handlers are being run. */
+	private Timeout expiring = new Timeout(null);
+
+	/** The head of the list of timeouts being cascaded. */
+	private Timeout cascading = new Timeout(null);
+
+	/** The next unit to run the timeouts of. */
+	private long current;
+
+	/** The number of pending timeouts. */
+	private int size = 0;
+}
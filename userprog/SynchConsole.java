@@ -47,8 +47,18 @@ public class SynchConsole {
 
 		if (block || charAvailable) {
 			charAvailable = false;
+
+			long waitTime = Machine.timer().getTime();
 			readWait.P();
 
+			// if we had to wait for the byte, count how long it took to run
+			if (receiveTime >= waitTime) {
+				long latency = Machine.timer().getTime() - receiveTime;
+				numWakeups++;
+				totalWakeupLatency += latency;
+				maxWakeupLatency = Math.max(maxWakeupLatency, latency);
+			}
+
 			value = console.readByte();
 			Lib.assertTrue(value != -1);
 		}
@@ -72,9 +82,23 @@ public class SynchConsole {
 
 	private void receiveInterrupt() {
 		charAvailable = true;
+		receiveTime = Machine.timer().getTime();
 		readWait.V();
 	}
 
+	/**
+	 * Print how long threads blocked in <tt>readByte()</tt> took to run after
+	 * the byte they were waiting for arrived, if any did.
+	 */
+	public void printWakeupLatency() {
+		if (numWakeups == 0)
+			return;
+
+		System.out.println("Console read wakeups: " + numWakeups
+				+ ", latency average " + totalWakeupLatency / numWakeups
+				+ ", max " + maxWakeupLatency + " ticks");
+	}
+
 	/**
 	 * Send a byte. Blocks until the send is complete.
 	 * 
@@ -102,6 +126,13 @@ public class SynchConsole {
 
 	private boolean charAvailable = false;
 
+	/** When the last byte arrived. */
+	private long receiveTime = -1;
+
+	private int numWakeups = 0;
+
+	private long totalWakeupLatency = 0, maxWakeupLatency = 0;
+
 	private SerialConsole console;
 
 	private Lock readLock = new Lock();
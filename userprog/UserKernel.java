@@ -40,7 +40,11 @@ public class UserKernel extends ThreadedKernel {
 	}
 
 	/**
-	 * Test the console device.
+	 * Test the console device. If the <tt>nachos.conf</tt> key
+	 * <tt>UserKernel.consoleLatencyTest</tt> is set, also run
+	 * <tt>consoleLatencyTest()</tt> for that many bytes, and if
+	 * <tt>UserKernel.copyBenchmark</tt> is <tt>true</tt>, run
+	 * <tt>UserProcess.copyBenchmark()</tt>.
 	 */
 	public void selfTest() {
 		super.selfTest();
@@ -56,6 +60,44 @@ public class UserKernel extends ThreadedKernel {
 		} while (c != 'q');
 
 		System.out.println("");*/
+
+		int latencyBytes = Config.getInteger("UserKernel.consoleLatencyTest", 0);
+		if (latencyBytes > 0)
+			consoleLatencyTest(latencyBytes);
+		if (Config.getBoolean("UserKernel.copyBenchmark", false))
+			UserProcess.copyBenchmark();
+	}
+
+	/**
+	 * Read the specified number of bytes from the console while three kernel
+	 * threads keep the CPU busy, and print how long the reader took to run
+	 * after each byte arrived, which <tt>terminate()</tt> reports. Compare
+	 * schedulers with it.
+	 * 
+	 * @param bytes the number of bytes to read.
+	 */
+	public static void consoleLatencyTest(int bytes) {
+		final boolean[] done = new boolean[1];
+
+		KThread[] hogs = new KThread[3];
+		for (int i = 0; i < hogs.length; i++) {
+			hogs[i] = new KThread(new Runnable() {
+				public void run() {
+					while (!done[0]) {
+						Machine.interrupt().disable();
+						Machine.interrupt().enable();
+					}
+				}
+			}).setName("hog " + i);
+			hogs[i].fork();
+		}
+
+		for (int i = 0; i < bytes; i++)
+			console.readByte(true);
+
+		done[0] = true;
+		for (int i = 0; i < hogs.length; i++)
+			hogs[i].join();
 	}
 
 	/**
@@ -114,6 +156,8 @@ public class UserKernel extends ThreadedKernel {
 	 * Terminate this kernel. Never returns.
 	 */
 	public void terminate() {
+		console.printWakeupLatency();
+
 		super.terminate();
 	}
 
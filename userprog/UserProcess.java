@@ -135,50 +135,7 @@ public class UserProcess {
 		Lib.assertTrue(offset >= 0 && length >= 0
 				&& offset + length <= data.length);
 
-		byte[] memory = Machine.processor().getMemory();
-
-		if(length <= 0)
-			return 0;
-
-		// for now, just assume that virtual addresses equal physical addresses
-		//if (vaddr < 0 || vaddr >= memory.length)
-		//	return 0;
-		
-		//System.out.println("vaddr in rvm is: " + vaddr);
-		int pageID = Processor.pageFromAddress(vaddr);
-		//System.out.println("pageID in rvm is: " + pageID);
-		if(pageID >= numPages || pageID < 0)
-			return 0;
-		TranslationEntry tmp = pageTable[pageID];
-		//System.out.println("ppn in rvm is: " + tmp.ppn);
-		if(!tmp.valid)
-			return 0;
-		int pageOffset = Processor.offsetFromAddress(vaddr);
-		int paddr = tmp.ppn*Processor.pageSize + pageOffset; 
-
-		int byteLeft = pageSize - pageOffset;
-
-		//System.out.println("length is: " + length);
-		//System.out.println("pageSize is: " + pageSize);
-		//System.out.println("byteLeft is: " + byteLeft);
-
-		//if(paddr < 0 || paddr >= memory.length)
-		//	return 0;
-
-		int amount = Math.min(byteLeft, length);
-		totalReadAmount += amount;
-		if(amount == length){
-			System.arraycopy(memory, paddr, data, offset, amount);
-			return totalReadAmount;
-		}
-		else{
-			System.arraycopy(memory, paddr, data, offset, amount);
-			readVirtualMemory(vaddr+amount, data, offset+amount, length-amount);
-		}
-
-
-		return totalReadAmount;
-		
+		return copyVirtualMemory(vaddr, data, offset, length, false);
 	}
 
 	/**
@@ -211,53 +168,88 @@ public class UserProcess {
 		Lib.assertTrue(offset >= 0 && length >= 0
 				&& offset + length <= data.length);
 
-		UserKernel.lock.acquire();
+		return copyVirtualMemory(vaddr, data, offset, length, true);
+	}
+
+	/**
+	 * Copy data between this process's virtual memory and an array, page by
+	 * page, stopping at the first page that is not mapped, or that is
+	 * read-only when writing. Each page is translated once, and consecutive
+	 * pages that are also consecutive in physical memory are copied together.
+	 * The pages belong to this process, so no lock is needed.
+	 * 
+	 * @param vaddr the first byte of virtual memory to copy.
+	 * @param data the array to copy from or to.
+	 * @param offset the first byte of the array to copy.
+	 * @param length the number of bytes to copy.
+	 * @param write <tt>true</tt> to copy from the array to virtual memory,
+	 * <tt>false</tt> to copy from virtual memory to the array.
+	 * @return the number of bytes copied.
+	 */
+	private int copyVirtualMemory(int vaddr, byte[] data, int offset,
+			int length, boolean write) {
 		byte[] memory = Machine.processor().getMemory();
+		int copied = 0;
 
-		// for now, just assume that virtual addresses equal physical addresses
-		//if (vaddr < 0 || vaddr >= memory.length)
-		//	return 0;
+		while (copied < length) {
+			int vpn = Processor.pageFromAddress(vaddr + copied);
+			int paddr = pageAddress(vpn, write);
+			if (paddr < 0)
+				break;
 
-		if(length <= 0){
-			UserKernel.lock.release();
-			return 0;
-		}
+			paddr += Processor.offsetFromAddress(vaddr + copied);
+			int amount = Math.min(length - copied, pageSize
+					- Processor.offsetFromAddress(vaddr + copied));
 
-		int pageID = Processor.pageFromAddress(vaddr);
-		if(pageID >= numPages){
-			UserKernel.lock.release();
-			return 0;
-		}
+			while (amount < length - copied
+					&& pageAddress(vpn + 1, write) == paddr + amount) {
+				vpn++;
+				amount += Math.min(length - copied - amount, pageSize);
+			}
 
-		TranslationEntry tmp = pageTable[pageID];
-		if(tmp.readOnly || !tmp.valid){
-			UserKernel.lock.release();
-			return 0;
+			if (write)
+				System.arraycopy(data, offset + copied, memory, paddr, amount);
+			else
+				System.arraycopy(memory, paddr, data, offset + copied, amount);
+
+			copied += amount;
 		}
 
-		int pageOffset = Processor.offsetFromAddress(vaddr);
-		int paddr = tmp.ppn*Processor.pageSize + pageOffset;
+		return copied;
+	}
 
-		//if(paddr < 0 || paddr >= memory.length)
-		//	return 0;
+	/**
+	 * Return how many of the <tt>length</tt> bytes of virtual memory starting
+	 * at <tt>vaddr</tt> can be written before the first page that is not
+	 * mapped or is read-only.
+	 */
+	private int writableLength(int vaddr, int length) {
+		int writable = 0;
+
+		while (writable < length
+				&& pageAddress(Processor.pageFromAddress(vaddr + writable),
+						true) >= 0) {
+			writable += Math.min(length - writable, pageSize
+					- Processor.offsetFromAddress(vaddr + writable));
+		}
 
-		int byteLeft = pageSize - pageOffset;
+		return writable;
+	}
 
-		int amount = Math.min(length, byteLeft);
-		//System.out.println("length is: " + length);
-		totalWriteAmount += amount;
-		if(amount == length){
-			System.arraycopy(data, offset, memory, paddr, amount);
-			UserKernel.lock.release();
-		}
-		else{
-			System.arraycopy(data, offset, memory, paddr, amount);
-			UserKernel.lock.release();
-			writeVirtualMemory(vaddr+amount, data, offset+amount, length-amount);
-		}
-		
+	/**
+	 * Return the physical address of the specified virtual page, or -1 if it
+	 * is not mapped, or if it is read-only and <tt>write</tt> is
+	 * <tt>true</tt>.
+	 */
+	private int pageAddress(int vpn, boolean write) {
+		if (vpn < 0 || vpn >= numPages)
+			return -1;
 
-		return totalWriteAmount;
+		TranslationEntry entry = pageTable[vpn];
+		if (!entry.valid || (write && entry.readOnly))
+			return -1;
+
+		return entry.ppn * pageSize;
 	}
 
 	/**
@@ -377,7 +369,7 @@ public class UserProcess {
 		}
 		pageTable = new TranslationEntry[numPages];
 		for(int i = 0; i < numPages; i++){
-			pageTable[i] = new TranslationEntry(i, UserKernel.freePhysicalPages.removeLast(), true, false, false, false);
+			pageTable[i] = new TranslationEntry(i, UserKernel.freePhysicalPages.removeFirst(), true, false, false, false);
 		}
 
 		
@@ -410,6 +402,7 @@ public class UserProcess {
 		UserKernel.lock.acquire();
 		for(int i = 0; i < numPages; i++){
 			if(pageTable[i] != null){
+				Machine.processor().invalidatePage(pageTable[i].ppn);
 				UserKernel.freePhysicalPages.add(pageTable[i].ppn);
 				pageTable[i] = new TranslationEntry(i, i, true, false, false, false);
 			}
@@ -417,6 +410,75 @@ public class UserProcess {
 		UserKernel.lock.release();
 	}
 
+	/**
+	 * Check that transfers to and from a process's virtual memory stop at the
+	 * end of its address space and at read-only pages, and that
+	 * <tt>read()</tt> takes no more from a file than it can store, and time
+	 * moving 1 MB each way, in transfers as large as the free physical memory
+	 * allows.
+	 */
+	public static void copyBenchmark() {
+		UserProcess process = newUserProcess();
+
+		UserKernel.lock.acquire();
+		int pages = UserKernel.freePhysicalPages.size();
+		process.numPages = pages;
+		process.pageTable = new TranslationEntry[pages];
+		for (int i = 0; i < pages; i++)
+			process.pageTable[i] = new TranslationEntry(i,
+					UserKernel.freePhysicalPages.removeFirst(), true, false,
+					false, false);
+		UserKernel.lock.release();
+
+		byte[] data = new byte[pages * pageSize];
+		byte[] copy = new byte[data.length];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) i;
+
+		Lib.assertTrue(process.writeVirtualMemory(0, data) == data.length
+				&& process.readVirtualMemory(0, copy) == copy.length
+				&& Arrays.equals(data, copy), "round trip failed");
+		Lib.assertTrue(process.readVirtualMemory(data.length - 10, copy, 0, 100) == 10
+				&& process.writeVirtualMemory(-1, data) == 0,
+				"wrong count at the end of the address space");
+		process.pageTable[1].readOnly = true;
+		Lib.assertTrue(process.writeVirtualMemory(pageSize / 2, data, 0,
+				2 * pageSize) == pageSize / 2, "wrote a read-only page");
+
+		OpenFile file = ThreadedKernel.fileSystem.open("copybench.tmp", true);
+		file.write(data, 0, 2 * pageSize);
+		file.seek(0);
+		process.files[2] = file;
+		Lib.assertTrue(process.handleRead(2, pageSize / 2, 2 * pageSize) == pageSize / 2
+				&& file.tell() == pageSize / 2,
+				"read more of the file than the buffer could hold");
+		process.files[2] = null;
+		file.close();
+		ThreadedKernel.fileSystem.remove("copybench.tmp");
+		process.pageTable[1].readOnly = false;
+
+		int total = 1 << 20;
+		for (int round = 0; round < 10; round++) {
+			long start = System.nanoTime();
+			for (int moved = 0; moved < total; moved += data.length) {
+				int amount = Math.min(data.length, total - moved);
+				process.writeVirtualMemory(0, data, 0, amount);
+				process.readVirtualMemory(0, copy, 0, amount);
+			}
+			long time = System.nanoTime() - start;
+
+			System.out.println("1 MB each way in " + (total / data.length)
+					+ " transfers of " + data.length + " bytes: "
+					+ (time / 1000) + " us");
+		}
+
+		process.unloadSections();
+
+		// the process never ran, so do not leave it counted as active
+		UserKernel.activeProcess--;
+		UserKernel.nextProcessID--;
+	}
+
 	/**
 	 * Initialize the processor's registers in preparation for running the
 	 * program loaded into this process. Set the PC register to point at the
@@ -446,7 +508,7 @@ public class UserProcess {
 	private int handleHalt() {
 
 		if(UserKernel.activeProcess == 0)
-			Machine.halt();
+			UserKernel.kernel.terminate();
 
 		//Lib.assertNotReached("Machine.halt() did not halt machine!");
 		return 0;
@@ -736,16 +798,19 @@ public class UserProcess {
 		if(readFile == null)
 			return -1;
 
-		byte[] bufferBytes = new byte[count];
-		int numberBytes = readFile.read(bufferBytes, 0, count);
-		if(numberBytes == -1)
+		// only take from the file what the buffer can hold
+		int writable = writableLength(bva, count);
+		if(writable == 0 && count > 0)
 			return -1;
 
-		int check = writeVirtualMemory(bva, bufferBytes, 0, count);
-		totalWriteAmount = 0;
-		if(check == 0)
+		byte[] bufferBytes = new byte[writable];
+		int numberBytes = readFile.read(bufferBytes, 0, writable);
+		if(numberBytes == -1)
 			return -1;
 
+		int check = writeVirtualMemory(bva, bufferBytes, 0, numberBytes);
+		Lib.assertTrue(check == numberBytes);
+
 		return numberBytes;
 	}
 
@@ -765,22 +830,18 @@ public class UserProcess {
 		byte[] bufferBytes = new byte[count];
 		int numberBytes = readVirtualMemory(bva, bufferBytes, 0, count);
 	//System.out.println("number bytes is: " + numberBytes);
-		totalReadAmount = 0;
 
 	//System.out.println("count is: " + count);
 		if(numberBytes == 0 && count != 0)
 			return -1;
-
-		if(numberBytes != count)
-			return -1;
 		
-		int check = writeFile.write(bufferBytes, 0, count);
+		int check = writeFile.write(bufferBytes, 0, numberBytes);
 		
 	//System.out.println("check is: " + check);
 		if(check == -1)
 			return -1;
 
-		return numberBytes;
+		return check;
 	}
 
 	/**
@@ -862,6 +923,4 @@ public class UserProcess {
 	public boolean good = false;
 	public int status = -1;
 	public KThread cT;
-	public int totalReadAmount = 0;
-	public int totalWriteAmount = 0;
 }